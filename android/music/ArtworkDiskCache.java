@@ -0,0 +1,280 @@
+package com.android.music;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+
+import com.sonyericsson.extras.liveware.extension.oss.music.BitmapPool;
+import com.sonyericsson.extras.liveware.extension.util.Dbg;
+
+/**
+ * The artwork disk cache stores pre-scaled artwork as raw RGB565 pixels in the
+ * cache directory of the application, so that artwork that has been shown
+ * once can be restored without opening and decoding the original image, also
+ * after the process has been restarted. Files are read using memory mapped
+ * I/O. The cache is bounded by the total size of the files, and the least
+ * recently used files are deleted first.
+ */
+class ArtworkDiskCache {
+
+	private static final String DIRECTORY_NAME = "artwork";
+
+	private static final String FILE_SUFFIX = ".565";
+
+	/**
+	 * Width and height of the artwork, stored before the pixels.
+	 */
+	private static final int HEADER_SIZE = 2 * 4;
+
+	private static final int BYTES_PER_PIXEL = 2;
+
+	private final File mDirectory;
+
+	private final long mMaxBytes;
+
+	/**
+	 * Number of bytes used by the cache files, or -1 if not yet known.
+	 */
+	private long mBytes = -1;
+
+	/**
+	 * Create artwork disk cache.
+	 *
+	 * @param context
+	 *            The context.
+	 * @param maxBytes
+	 *            The max number of bytes used by the cache files.
+	 */
+	public ArtworkDiskCache(Context context, long maxBytes) {
+		mDirectory = new File(context.getCacheDir(), DIRECTORY_NAME);
+		mMaxBytes = maxBytes;
+	}
+
+	/**
+	 * Get artwork from the cache.
+	 *
+	 * @param name
+	 *            The name of the artwork.
+	 * @return The artwork or null if not in the cache.
+	 */
+	public synchronized Bitmap get(String name) {
+		File file = new File(mDirectory, name + FILE_SUFFIX);
+		if (!file.exists()) {
+			return null;
+		}
+
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file, "r");
+			FileChannel channel = raf.getChannel();
+			long size = channel.size();
+			if (size < HEADER_SIZE) {
+				delete(file);
+				return null;
+			}
+
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			buffer.order(ByteOrder.nativeOrder());
+			int width = buffer.getInt();
+			int height = buffer.getInt();
+			if (width <= 0 || height <= 0 || size != HEADER_SIZE + (long) width * height * BYTES_PER_PIXEL) {
+				Dbg.w("Corrupt artwork cache file " + file.getName());
+				delete(file);
+				return null;
+			}
+
+			Bitmap bitmap = BitmapPool.acquire(width, height, Bitmap.Config.RGB_565);
+			bitmap.copyPixelsFromBuffer(buffer);
+
+			// Keep track of when the file was last used for eviction.
+			file.setLastModified(System.currentTimeMillis());
+			return bitmap;
+		} catch (IOException e) {
+			Dbg.w("Failed to read artwork cache file " + file.getName());
+			return null;
+		} finally {
+			if (raf != null) {
+				try {
+					raf.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * Check if artwork is in the cache, without reading it.
+	 *
+	 * @param name
+	 *            The name of the artwork.
+	 * @return True if the artwork is in the cache.
+	 */
+	public synchronized boolean contains(String name) {
+		return new File(mDirectory, name + FILE_SUFFIX).exists();
+	}
+
+	/**
+	 * Get the number of bytes used by the cache files.
+	 *
+	 * @return The size of the cache.
+	 */
+	public synchronized long getSize() {
+		if (mBytes < 0) {
+			mBytes = 0;
+			File[] files = mDirectory.listFiles();
+			if (files != null) {
+				for (File file : files) {
+					mBytes += file.length();
+				}
+			}
+		}
+		return mBytes;
+	}
+
+	/**
+	 * Check if the cache directory is empty, for example because the system
+	 * has cleared the cache. Lists the directory, so it should not be called
+	 * often.
+	 *
+	 * @return True if there are no cache files.
+	 */
+	public synchronized boolean isEmpty() {
+		String[] names = mDirectory.list();
+		if (names == null || names.length == 0) {
+			mBytes = 0;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Put artwork into the cache. The artwork is converted to RGB565 if needed.
+	 *
+	 * @param name
+	 *            The name of the artwork.
+	 * @param bitmap
+	 *            The artwork.
+	 */
+	public synchronized void put(String name, Bitmap bitmap) {
+		if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+			Dbg.w("Failed to create artwork cache directory");
+			return;
+		}
+
+		Bitmap pixels = bitmap;
+		if (bitmap.getConfig() != Bitmap.Config.RGB_565) {
+			pixels = bitmap.copy(Bitmap.Config.RGB_565, false);
+			if (pixels == null) {
+				return;
+			}
+		}
+
+		int width = pixels.getWidth();
+		int height = pixels.getHeight();
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + width * height * BYTES_PER_PIXEL);
+		buffer.order(ByteOrder.nativeOrder());
+		buffer.putInt(width);
+		buffer.putInt(height);
+		pixels.copyPixelsToBuffer(buffer);
+		buffer.flip();
+
+		if (pixels != bitmap) {
+			pixels.recycle();
+		}
+
+		// Write to a temporary file first so that a partially written file
+		// never is read.
+		File tmpFile = new File(mDirectory, name + ".tmp");
+		File file = new File(mDirectory, name + FILE_SUFFIX);
+		long size = getSize();
+		long previousLength = file.length();
+		FileOutputStream out = null;
+		try {
+			out = new FileOutputStream(tmpFile);
+			out.getChannel().write(buffer);
+			out.close();
+			out = null;
+			if (!tmpFile.renameTo(file)) {
+				tmpFile.delete();
+				return;
+			}
+			mBytes = size - previousLength + file.length();
+		} catch (IOException e) {
+			Dbg.w("Failed to write artwork cache file " + file.getName());
+			tmpFile.delete();
+			return;
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+
+		trimToSize();
+	}
+
+	/**
+	 * Delete a cache file and keep the size of the cache up to date.
+	 */
+	private void delete(File file) {
+		long length = file.length();
+		if (file.delete() && mBytes >= 0) {
+			mBytes -= length;
+		}
+	}
+
+	/**
+	 * Delete the least recently used files until the cache is within its size
+	 * limit. The size is kept up to date by each write, so the directory is
+	 * only listed when the cache has grown too large.
+	 */
+	private void trimToSize() {
+		if (getSize() <= mMaxBytes) {
+			return;
+		}
+
+		File[] files = mDirectory.listFiles();
+		if (files == null) {
+			return;
+		}
+
+		// Recount, in case files have been removed by the system.
+		long bytes = 0;
+		for (File file : files) {
+			bytes += file.length();
+		}
+		if (bytes <= mMaxBytes) {
+			mBytes = bytes;
+			return;
+		}
+
+		Arrays.sort(files, new Comparator<File>() {
+			public int compare(File lhs, File rhs) {
+				long lhsModified = lhs.lastModified();
+				long rhsModified = rhs.lastModified();
+				return lhsModified < rhsModified ? -1 : (lhsModified == rhsModified ? 0 : 1);
+			}
+		});
+
+		for (int i = 0; i < files.length && bytes > mMaxBytes; i++) {
+			long length = files[i].length();
+			if (files[i].delete()) {
+				bytes -= length;
+			}
+		}
+		mBytes = bytes;
+	}
+
+}
@@ -0,0 +1,97 @@
+package com.android.music;
+
+/**
+ * The artwork key identifies the artwork of a track without looking at any
+ * pixels. Two keys are equal if they refer to the same artwork, so the key
+ * can be used to check if the artwork on a display needs to be updated. The
+ * key includes the generation of the MediaStore, so that artwork that may
+ * have changed is loaded again.
+ */
+public final class ArtworkKey {
+
+	/**
+	 * No album or track is known. The default artwork is used.
+	 */
+	public static final int SOURCE_NONE = 0;
+
+	/**
+	 * The artwork of the album in the MediaStore.
+	 */
+	public static final int SOURCE_ALBUM = 1;
+
+	/**
+	 * The artwork of the track, used when the album is not known.
+	 */
+	public static final int SOURCE_TRACK = 2;
+
+	private final int mSource;
+
+	private final long mAlbumId;
+
+	private final long mAudioId;
+
+	private final int mGeneration;
+
+	/**
+	 * Create artwork key.
+	 *
+	 * @param source
+	 *            The source of the artwork.
+	 * @param albumId
+	 *            The album id.
+	 * @param audioId
+	 *            The audio id.
+	 * @param generation
+	 *            The number of times the MediaStore has changed.
+	 */
+	public ArtworkKey(int source, long albumId, long audioId, int generation) {
+		mSource = source;
+		mAlbumId = albumId;
+		mAudioId = audioId;
+		mGeneration = generation;
+	}
+
+	public int getSource() {
+		return mSource;
+	}
+
+	public long getAlbumId() {
+		return mAlbumId;
+	}
+
+	public long getAudioId() {
+		return mAudioId;
+	}
+
+	public int getGeneration() {
+		return mGeneration;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof ArtworkKey)) {
+			return false;
+		}
+		ArtworkKey other = (ArtworkKey) o;
+		return mSource == other.mSource && mAlbumId == other.mAlbumId && mAudioId == other.mAudioId && mGeneration == other.mGeneration;
+	}
+
+	@Override
+	public int hashCode() {
+		int result = 17;
+		result = 31 * result + mSource;
+		result = 31 * result + (int) (mAlbumId ^ (mAlbumId >>> 32));
+		result = 31 * result + (int) (mAudioId ^ (mAudioId >>> 32));
+		result = 31 * result + mGeneration;
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return "ArtworkKey[" + mSource + ", " + mAlbumId + ", " + mAudioId + ", " + mGeneration + "]";
+	}
+
+}
@@ -0,0 +1,138 @@
+package com.android.music;
+
+import android.os.SystemClock;
+
+/**
+ * The artwork miss cache remembers albums and songs that have no artwork, so
+ * that the content provider is not asked again for artwork that does not
+ * exist. Misses expire after a while, and the cache is cleared when the
+ * MediaStore changes. The misses are kept in an open addressing table of
+ * primitive keys, so a lookup does not allocate any objects.
+ */
+class ArtworkMissCache {
+
+	private static final int MAX_ENTRIES = 1024;
+
+	/**
+	 * Size of the table. A power of two, at least twice the max number of
+	 * entries.
+	 */
+	private static final int TABLE_SIZE = 2 * MAX_ENTRIES;
+
+	/**
+	 * Marks a free slot. Not a valid key, see {@link #getKey(long, long)}.
+	 */
+	private static final long FREE = Long.MIN_VALUE;
+
+	private final long[] mKeys = new long[TABLE_SIZE];
+
+	private final long[] mTimes = new long[TABLE_SIZE];
+
+	private int mSize = 0;
+
+	private final long mMaxAge;
+
+	/**
+	 * Create artwork miss cache.
+	 *
+	 * @param maxAge
+	 *            The time in milliseconds a miss is remembered.
+	 */
+	public ArtworkMissCache(long maxAge) {
+		mMaxAge = maxAge;
+		clear();
+	}
+
+	/**
+	 * Check if the album or song is known to have no artwork.
+	 *
+	 * @param albumId
+	 *            The album id.
+	 * @param audioId
+	 *            The audio id. Only used if the album id is not known.
+	 * @return True if the artwork is known to be missing.
+	 */
+	public synchronized boolean isMissing(long albumId, long audioId) {
+		int slot = findSlot(getKey(albumId, audioId));
+		if (mKeys[slot] == FREE) {
+			return false;
+		}
+		// Expired entries are overwritten by the next miss.
+		return SystemClock.elapsedRealtime() - mTimes[slot] <= mMaxAge;
+	}
+
+	/**
+	 * Remember that the album or song has no artwork.
+	 *
+	 * @param albumId
+	 *            The album id.
+	 * @param audioId
+	 *            The audio id. Only used if the album id is not known.
+	 */
+	public synchronized void putMissing(long albumId, long audioId) {
+		long now = SystemClock.elapsedRealtime();
+		long key = getKey(albumId, audioId);
+		int slot = findSlot(key);
+		if (mKeys[slot] == FREE) {
+			if (mSize >= MAX_ENTRIES) {
+				// Drop expired entries, and everything if that is not enough.
+				removeExpired(now);
+				if (mSize >= MAX_ENTRIES) {
+					clear();
+				}
+				slot = findSlot(key);
+			}
+			mKeys[slot] = key;
+			mSize++;
+		}
+		mTimes[slot] = now;
+	}
+
+	/**
+	 * Forget all misses.
+	 */
+	public synchronized void clear() {
+		for (int i = 0; i < TABLE_SIZE; i++) {
+			mKeys[i] = FREE;
+		}
+		mSize = 0;
+	}
+
+	/**
+	 * Rebuild the table without the expired entries.
+	 */
+	private void removeExpired(long now) {
+		long[] keys = mKeys.clone();
+		long[] times = mTimes.clone();
+		clear();
+		for (int i = 0; i < TABLE_SIZE; i++) {
+			if (keys[i] != FREE && now - times[i] <= mMaxAge) {
+				int slot = findSlot(keys[i]);
+				mKeys[slot] = keys[i];
+				mTimes[slot] = times[i];
+				mSize++;
+			}
+		}
+	}
+
+	/**
+	 * Get the slot holding a key, or the free slot where it would be put.
+	 */
+	private int findSlot(long key) {
+		int slot = (int) ((key ^ (key >>> 32)) * 0x9e3779b1) >>> 21;
+		while (mKeys[slot] != FREE && mKeys[slot] != key) {
+			slot = (slot + 1) & (TABLE_SIZE - 1);
+		}
+		return slot;
+	}
+
+	/**
+	 * Pack the ids into a key. The artwork of a song in a known album is the
+	 * artwork of the album, so the audio id is only part of the key if the
+	 * album is not known.
+	 */
+	static long getKey(long albumId, long audioId) {
+		return albumId >= 0 ? albumId : -2 - Math.max(audioId, -1);
+	}
+
+}
@@ -0,0 +1,53 @@
+package com.android.music;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import com.sonyericsson.extras.liveware.extension.oss.music.R;
+
+/**
+ * The default artwork provides the artwork shown for tracks without album
+ * art. The artwork is selected from a set of images based on the identity of
+ * the track, so a track always gets the same image. Each image is decoded once
+ * and shared.
+ */
+public class DefaultArtwork {
+
+	private static final int[] RESOURCE_IDS = { R.drawable.default_music_album_1, R.drawable.default_music_album_2, R.drawable.default_music_album_3, R.drawable.default_music_album_4,
+			R.drawable.default_music_album_5, R.drawable.default_music_album_6 };
+
+	private static final Bitmap[] sBitmaps = new Bitmap[RESOURCE_IDS.length];
+
+	/**
+	 * Get the default artwork for a track.
+	 *
+	 * @param context
+	 *            The context.
+	 * @param seed
+	 *            A value identifying the track, for example the album id.
+	 * @param options
+	 *            The options used to decode the artwork the first time.
+	 * @return The default artwork. Shared, must not be modified.
+	 */
+	public static Bitmap get(Context context, long seed, BitmapFactory.Options options) {
+		int index = getIndex(seed);
+		synchronized (sBitmaps) {
+			if (sBitmaps[index] == null) {
+				sBitmaps[index] = BitmapFactory.decodeResource(context.getResources(), RESOURCE_IDS[index], options);
+			}
+			return sBitmaps[index];
+		}
+	}
+
+	/**
+	 * Get the index of the image to use for a seed. The seed is mixed so that
+	 * consecutive ids do not just cycle through the images.
+	 */
+	private static int getIndex(long seed) {
+		long hash = seed * 0x9E3779B97F4A7C15L;
+		hash ^= (hash >>> 32);
+		return (int) ((hash & 0x7fffffffL) % RESOURCE_IDS.length);
+	}
+
+}
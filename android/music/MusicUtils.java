@@ -20,19 +20,28 @@ import java.io.FileDescriptor;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Random;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.media.MediaMetadataRetriever;
 import android.net.Uri;
 import android.os.ParcelFileDescriptor;
+import android.provider.MediaStore;
 import android.util.DisplayMetrics;
 
-import com.sonyericsson.extras.liveware.extension.oss.music.CommonUtil;
-import com.sonyericsson.extras.liveware.extension.oss.music.R;
+import com.sonyericsson.extras.liveware.extension.oss.music.BitmapPool;
+import com.sonyericsson.extras.liveware.extension.util.Dbg;
 
 public class MusicUtils {
 
@@ -40,6 +49,62 @@ public class MusicUtils {
 
 	private static final Uri sArtworkUri = Uri.parse("content://media/external/audio/albumart");
 
+	/**
+	 * Max number of bytes held by the decoded bitmaps in the artwork cache.
+	 */
+	private static final int ARTWORK_CACHE_MAX_BYTES = 2 * 1024 * 1024;
+
+	private static final ArtworkCache sArtworkCache = new ArtworkCache(ARTWORK_CACHE_MAX_BYTES);
+
+	/**
+	 * Max number of bytes used by the files in the artwork disk cache.
+	 */
+	private static final long ARTWORK_DISK_CACHE_MAX_BYTES = 32 * 1024 * 1024;
+
+	private static ArtworkDiskCache sArtworkDiskCache = null;
+
+	private static final Paint sScalePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+	/**
+	 * Canvas and rectangles used to scale artwork. Guarded by sScalePaint.
+	 */
+	private static final Canvas sScaleCanvas = new Canvas();
+
+	private static final Rect sScaleSource = new Rect();
+
+	private static final Rect sScaleDest = new Rect();
+
+	private static final int MAX_MODIFIED_TIMES = 64;
+
+	/**
+	 * Time an album or song without artwork is remembered.
+	 */
+	private static final long ARTWORK_MISS_MAX_AGE = 30 * 60 * 1000;
+
+	private static final ArtworkMissCache sArtworkMissCache = new ArtworkMissCache(ARTWORK_MISS_MAX_AGE);
+
+	private static ContentObserver sMediaObserver = null;
+
+	/**
+	 * Number of times the MediaStore has changed since it started being
+	 * observed.
+	 */
+	private static volatile int sMediaGeneration = 0;
+
+	/**
+	 * MediaStore modification times that have been looked up, by album id and
+	 * audio id packed into one key, see
+	 * {@link ArtworkMissCache#getKey(long, long)}. When full, the oldest
+	 * lookup is replaced.
+	 */
+	private static final long[] sModifiedKeys = new long[MAX_MODIFIED_TIMES];
+
+	private static final long[] sModifiedTimes = new long[MAX_MODIFIED_TIMES];
+
+	private static int sModifiedCount = 0;
+
+	private static int sModifiedNext = 0;
+
 	static {
 		sBitmapOptions.inPreferredConfig = Bitmap.Config.RGB_565;
 		sBitmapOptions.inDither = false;
@@ -61,26 +126,414 @@ public class MusicUtils {
 	 * for the "unknown" album here (use -1 instead)
 	 */
 	public static Bitmap getArtwork(Context context, long song_id, long album_id, boolean allowdefault) {
+		return getArtwork(context, song_id, album_id, 0, 0, allowdefault);
+	}
 
-		if (album_id < 0) {
-			// This is something that is not in the database, so get the album
-			// art directly
-			// from the file.
-			if (song_id >= 0) {
-				Bitmap bm = getArtworkFromFile(context, song_id, -1);
-				if (bm != null) {
-					return bm;
-				}
+	/**
+	 * Get album art for specified album, scaled and cropped to exactly the
+	 * requested size. The album art is subsampled while decoding so that a
+	 * large album art never is decoded at full resolution just to be shown as
+	 * a thumbnail. You should not pass in the album id for the "unknown" album
+	 * here (use -1 instead) This method always returns the default album art
+	 * icon when no album art is found. The default album art icon is not
+	 * scaled.
+	 * 
+	 * @param width
+	 *            The requested width, or 0 for the original size.
+	 * @param height
+	 *            The requested height, or 0 for the original size.
+	 */
+	public static Bitmap getArtwork(Context context, long song_id, long album_id, int width, int height) {
+		return getArtwork(context, song_id, album_id, width, height, true);
+	}
+
+	/**
+	 * Get album art for specified album, scaled and cropped to exactly the
+	 * requested size.
+	 * You should not pass in the album id for the "unknown" album here (use -1
+	 * instead)
+	 * 
+	 * @param width
+	 *            The requested width, or 0 for the original size.
+	 * @param height
+	 *            The requested height, or 0 for the original size.
+	 */
+	public static Bitmap getArtwork(Context context, long song_id, long album_id, int width, int height, boolean allowdefault) {
+		return getArtwork(context, song_id, album_id, null, width, height, allowdefault);
+	}
+
+	/**
+	 * Get album art for specified album, scaled and cropped to exactly the
+	 * requested size.
+	 * If neither the album nor the song has album art in the MediaStore, the
+	 * picture embedded in the tags of the song file is used. You should not
+	 * pass in the album id for the "unknown" album here (use -1 instead)
+	 * 
+	 * @param path
+	 *            The path of the song file if known, otherwise it is looked
+	 *            up in the MediaStore when needed. May be null.
+	 * @param width
+	 *            The requested width, or 0 for the original size.
+	 * @param height
+	 *            The requested height, or 0 for the original size.
+	 */
+	public static Bitmap getArtwork(Context context, long song_id, long album_id, String path, int width, int height, boolean allowdefault) {
+
+		if (album_id < 0 && song_id < 0) {
+			// Nothing to look up.
+			if (allowdefault) {
+				return getDefaultArtwork(context, -1);
 			}
+			return null;
+		}
+
+		if (width <= 0 || height <= 0) {
+			width = 0;
+			height = 0;
+		}
+
+		ArtworkCacheKey key = new ArtworkCacheKey(album_id, getCacheSongId(song_id, album_id), width, height);
+		Bitmap bm = sArtworkCache.get(key);
+		if (bm != null) {
+			return bm;
+		}
+
+		// Don't look for artwork that recently was found to be missing.
+		registerMediaObserver(context);
+		if (sArtworkMissCache.isMissing(album_id, getCacheSongId(song_id, album_id))) {
 			if (allowdefault) {
-				return getDefaultArtwork(context);
+				return getDefaultArtwork(context, album_id >= 0 ? album_id : song_id);
 			}
 			return null;
 		}
 
+		// Scaled artwork is also kept on disk, so check there before decoding.
+		String diskName = null;
+		if (width > 0) {
+			diskName = getDiskCacheName(context, song_id, album_id, width, height);
+			bm = getArtworkDiskCache(context).get(diskName);
+			if (bm != null) {
+				sArtworkCache.put(key, bm);
+				return bm;
+			}
+		}
+
+		bm = decodeArtwork(context, song_id, album_id, width, height);
+		if (bm == null && song_id >= 0) {
+			bm = getArtworkFromTags(context, song_id, path, width, height);
+		}
+		if (bm != null) {
+			sArtworkCache.put(key, bm);
+			if (diskName != null) {
+				getArtworkDiskCache(context).put(diskName, bm);
+			}
+			return bm;
+		}
+
+		sArtworkMissCache.putMissing(album_id, getCacheSongId(song_id, album_id));
+
+		if (allowdefault) {
+			return getDefaultArtwork(context, album_id >= 0 ? album_id : song_id);
+		}
+		return null;
+	}
+
+	/**
+	 * Start observing the MediaStore, unless already started. Decoded
+	 * artwork, and cached information about missing artwork and modification
+	 * times, is dropped when the MediaStore changes.
+	 */
+	private static synchronized void registerMediaObserver(Context context) {
+		if (sMediaObserver != null) {
+			return;
+		}
+
+		sMediaObserver = new ContentObserver(null) {
+			@Override
+			public void onChange(boolean selfChange) {
+				Dbg.d("MediaStore changed, clearing artwork caches");
+				// The artwork of an album may have changed. The bitmaps are
+				// not recycled since they may still be shown.
+				sArtworkCache.clear();
+				sArtworkMissCache.clear();
+				synchronized (sModifiedTimes) {
+					sModifiedCount = 0;
+					sModifiedNext = 0;
+				}
+				sMediaGeneration++;
+			}
+		};
+		ContentResolver resolver = context.getApplicationContext().getContentResolver();
+		resolver.registerContentObserver(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, true, sMediaObserver);
+		resolver.registerContentObserver(MediaStore.Audio.Albums.EXTERNAL_CONTENT_URI, true, sMediaObserver);
+	}
+
+	/**
+	 * Get album art for specified album from the in-memory cache only. Never
+	 * opens or decodes anything, so it is safe to call from the main thread.
+	 * 
+	 * @return The album art or null if it is not in the in-memory cache.
+	 */
+	public static Bitmap getCachedArtwork(long song_id, long album_id, int width, int height) {
+		if (width <= 0 || height <= 0) {
+			width = 0;
+			height = 0;
+		}
+		return sArtworkCache.get(new ArtworkCacheKey(album_id, getCacheSongId(song_id, album_id), width, height));
+	}
+
+	/**
+	 * Scale the album art for specified album and store it in the disk cache,
+	 * so that it later can be shown without decoding. The decoded artwork is
+	 * not kept in memory. Must not be called from the main thread.
+	 * 
+	 * @param album_id
+	 *            The album id.
+	 * @param width
+	 *            The requested width.
+	 * @param height
+	 *            The requested height.
+	 * @return True if the album art is in the disk cache, false if the album
+	 *         has no album art.
+	 */
+	public static boolean prerenderArtwork(Context context, long album_id, int width, int height) {
+		if (album_id < 0 || width <= 0 || height <= 0) {
+			return false;
+		}
+
+		registerMediaObserver(context);
+		if (sArtworkMissCache.isMissing(album_id, -1)) {
+			return false;
+		}
+
+		ArtworkDiskCache diskCache = getArtworkDiskCache(context);
+		String diskName = getDiskCacheName(context, -1, album_id, width, height);
+		if (diskCache.contains(diskName)) {
+			return true;
+		}
+
+		Bitmap bm = decodeArtwork(context, -1, album_id, width, height);
+		if (bm == null) {
+			sArtworkMissCache.putMissing(album_id, -1);
+			return false;
+		}
+		diskCache.put(diskName, bm);
+		BitmapPool.release(bm);
+		return true;
+	}
+
+	/**
+	 * Check if the artwork disk cache has room for more pre-rendered artwork
+	 * without evicting artwork that has been shown.
+	 * 
+	 * @return True if more artwork can be pre-rendered.
+	 */
+	public static boolean hasArtworkDiskCacheRoom(Context context) {
+		return getArtworkDiskCache(context).getSize() < ARTWORK_DISK_CACHE_MAX_BYTES * 3 / 4;
+	}
+
+	/**
+	 * Check if the artwork disk cache is empty, for example because the
+	 * system has cleared it.
+	 * 
+	 * @return True if the disk cache holds no artwork.
+	 */
+	public static boolean isArtworkDiskCacheEmpty(Context context) {
+		return getArtworkDiskCache(context).isEmpty();
+	}
+
+	/**
+	 * Check if specified album is known to have no album art. Never opens
+	 * anything, so it is safe to call from the main thread.
+	 * 
+	 * @return True if the album art recently was found to be missing.
+	 */
+	public static boolean isArtworkMissing(long song_id, long album_id) {
+		return sArtworkMissCache.isMissing(album_id, getCacheSongId(song_id, album_id));
+	}
+
+	/**
+	 * Get the key identifying the artwork for specified album. Never queries
+	 * the MediaStore. The modification time is not part of the key, since it
+	 * is only known once the artwork has been loaded, instead the key changes
+	 * when the MediaStore changes. The previous key is returned if it still
+	 * identifies the same artwork, so polling the key does not allocate.
+	 * 
+	 * @param previous
+	 *            The key returned by the previous call, or null.
+	 * @return The artwork key.
+	 */
+	public static ArtworkKey getArtworkKey(long song_id, long album_id, ArtworkKey previous) {
+		int source;
+		if (album_id >= 0) {
+			source = ArtworkKey.SOURCE_ALBUM;
+		} else if (song_id >= 0) {
+			source = ArtworkKey.SOURCE_TRACK;
+		} else {
+			source = ArtworkKey.SOURCE_NONE;
+		}
+
+		long cacheSongId = getCacheSongId(song_id, album_id);
+		int generation = sMediaGeneration;
+		if (previous != null && previous.getSource() == source && previous.getAlbumId() == album_id && previous.getAudioId() == cacheSongId
+				&& previous.getGeneration() == generation) {
+			return previous;
+		}
+		return new ArtworkKey(source, album_id, cacheSongId, generation);
+	}
+
+	/**
+	 * Get the number of times the MediaStore has changed. Artwork loaded
+	 * before a change may be out of date.
+	 * 
+	 * @return The generation.
+	 */
+	public static int getMediaGeneration() {
+		return sMediaGeneration;
+	}
+
+	/**
+	 * Get the number of artwork lookups that were served from the in-memory
+	 * cache.
+	 * 
+	 * @return The number of cache hits.
+	 */
+	public static int getArtworkCacheHitCount() {
+		return sArtworkCache.getHitCount();
+	}
+
+	/**
+	 * Get the number of artwork lookups that had to be decoded.
+	 * 
+	 * @return The number of cache misses.
+	 */
+	public static int getArtworkCacheMissCount() {
+		return sArtworkCache.getMissCount();
+	}
+
+	/**
+	 * Get the number of decoded artworks that have been evicted from the
+	 * in-memory cache to stay within its byte budget.
+	 * 
+	 * @return The number of cache evictions.
+	 */
+	public static int getArtworkCacheEvictionCount() {
+		return sArtworkCache.getEvictionCount();
+	}
+
+	/**
+	 * Drop all decoded artwork held by the in-memory cache.
+	 */
+	public static void clearArtworkCache() {
+		sArtworkCache.clear();
+	}
+
+	private static synchronized ArtworkDiskCache getArtworkDiskCache(Context context) {
+		if (sArtworkDiskCache == null) {
+			sArtworkDiskCache = new ArtworkDiskCache(context.getApplicationContext(), ARTWORK_DISK_CACHE_MAX_BYTES);
+		}
+		return sArtworkDiskCache;
+	}
+
+	/**
+	 * Get the song id used to identify cached artwork. The artwork of a song
+	 * in a known album is the artwork of the album, so it is shared by all
+	 * songs of the album.
+	 */
+	private static long getCacheSongId(long song_id, long album_id) {
+		return album_id >= 0 ? -1 : song_id;
+	}
+
+	/**
+	 * Get the name of scaled artwork in the disk cache. The name includes the
+	 * modification time of the media in the MediaStore so that artwork that
+	 * has been changed is not taken from the cache. The size is marked as
+	 * cropped, so that artwork that was stretched to the size is not used.
+	 */
+	private static String getDiskCacheName(Context context, long song_id, long album_id, int width, int height) {
+		return album_id + "_" + getCacheSongId(song_id, album_id) + "_" + width + "x" + height + "c_" + getModifiedTime(context, song_id, album_id);
+	}
+
+	/**
+	 * Get the last modification time of the album, or of the song if the
+	 * album is not known, from the MediaStore.
+	 * 
+	 * @return The modification time or 0 if not known.
+	 */
+	private static long getModifiedTime(Context context, long song_id, long album_id) {
+		long key = ArtworkMissCache.getKey(album_id, song_id);
+		synchronized (sModifiedTimes) {
+			for (int i = 0; i < sModifiedCount; i++) {
+				if (sModifiedKeys[i] == key) {
+					return sModifiedTimes[i];
+				}
+			}
+		}
+
+		String selection;
+		String[] selectionArgs;
+		if (album_id >= 0) {
+			selection = MediaStore.Audio.Media.ALBUM_ID + "=?";
+			selectionArgs = new String[] { String.valueOf(album_id) };
+		} else {
+			selection = MediaStore.Audio.Media._ID + "=?";
+			selectionArgs = new String[] { String.valueOf(song_id) };
+		}
+
+		long modified = 0;
+		Cursor cursor = null;
+		try {
+			cursor = context.getContentResolver().query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, new String[] { MediaStore.Audio.Media.DATE_MODIFIED }, selection, selectionArgs,
+					MediaStore.Audio.Media.DATE_MODIFIED + " DESC");
+			if (cursor != null && cursor.moveToFirst()) {
+				modified = cursor.getLong(0);
+			}
+		} catch (RuntimeException e) {
+			Dbg.w("Failed to get modification time for album " + album_id);
+			return 0;
+		} finally {
+			if (cursor != null) {
+				cursor.close();
+			}
+		}
+
+		synchronized (sModifiedTimes) {
+			sModifiedKeys[sModifiedNext] = key;
+			sModifiedTimes[sModifiedNext] = modified;
+			sModifiedNext = (sModifiedNext + 1) % MAX_MODIFIED_TIMES;
+			if (sModifiedCount < MAX_MODIFIED_TIMES) {
+				sModifiedCount++;
+			}
+		}
+		return modified;
+	}
+
+	/**
+	 * Decode the album art for the specified album or song.
+	 * 
+	 * @return The album art or null if no album art is found.
+	 */
+	private static Bitmap decodeArtwork(Context context, long song_id, long album_id, int width, int height) {
+
+		if (album_id < 0) {
+			// This is something that is not in the database, so get the album
+			// art directly
+			// from the file.
+			return getArtworkFromFile(context, song_id, -1, width, height);
+		}
+
 		ContentResolver res = context.getContentResolver();
 		Uri uri = ContentUris.withAppendedId(sArtworkUri, album_id);
 		if (uri != null) {
+			if (width > 0) {
+				try {
+					return decodeScaled(res, uri, width, height);
+				} catch (FileNotFoundException ex) {
+					// No album art thumbnail, see below.
+					return getArtworkFromFile(context, song_id, album_id, width, height);
+				}
+			}
+
 			InputStream in = null;
 			try {
 				in = res.openInputStream(uri);
@@ -89,16 +542,9 @@ public class MusicUtils {
 				// The album art thumbnail does not actually exist. Maybe the
 				// user deleted it, or
 				// maybe it never existed to begin with.
-				Bitmap bm = getArtworkFromFile(context, song_id, album_id);
-				if (bm != null) {
-					if (bm.getConfig() == null) {
-						bm = bm.copy(Bitmap.Config.RGB_565, false);
-						if (bm == null && allowdefault) {
-							return getDefaultArtwork(context);
-						}
-					}
-				} else if (allowdefault) {
-					bm = getDefaultArtwork(context);
+				Bitmap bm = getArtworkFromFile(context, song_id, album_id, 0, 0);
+				if (bm != null && bm.getConfig() == null) {
+					bm = bm.copy(Bitmap.Config.RGB_565, false);
 				}
 				return bm;
 			} finally {
@@ -114,7 +560,7 @@ public class MusicUtils {
 		return null;
 	}
 
-	private static Bitmap getArtworkFromFile(Context context, long songid, long albumid) {
+	private static Bitmap getArtworkFromFile(Context context, long songid, long albumid, int width, int height) {
 		Bitmap bm = null;
 
 		if (albumid < 0 && songid < 0) {
@@ -122,19 +568,23 @@ public class MusicUtils {
 		}
 
 		try {
+			Uri uri;
 			if (albumid < 0) {
-				Uri uri = Uri.parse("content://media/external/audio/media/" + songid + "/albumart");
-				ParcelFileDescriptor pfd = context.getContentResolver().openFileDescriptor(uri, "r");
-				if (pfd != null) {
-					FileDescriptor fd = pfd.getFileDescriptor();
-					bm = BitmapFactory.decodeFileDescriptor(fd);
-				}
+				uri = Uri.parse("content://media/external/audio/media/" + songid + "/albumart");
+			} else {
+				uri = ContentUris.withAppendedId(sArtworkUri, albumid);
+			}
+			if (width > 0) {
+				bm = decodeScaled(context.getContentResolver(), uri, width, height);
 			} else {
-				Uri uri = ContentUris.withAppendedId(sArtworkUri, albumid);
 				ParcelFileDescriptor pfd = context.getContentResolver().openFileDescriptor(uri, "r");
 				if (pfd != null) {
-					FileDescriptor fd = pfd.getFileDescriptor();
-					bm = BitmapFactory.decodeFileDescriptor(fd);
+					try {
+						FileDescriptor fd = pfd.getFileDescriptor();
+						bm = BitmapFactory.decodeFileDescriptor(fd);
+					} finally {
+						closeQuietly(pfd);
+					}
 				}
 			}
 		} catch (IllegalStateException ex) {
@@ -143,32 +593,306 @@ public class MusicUtils {
 		return bm;
 	}
 
-	public static Bitmap getDefaultArtwork(Context context) {
-
-		int albumImgIndex = 1;
-		int ramdomIndex = CommonUtil.showRandomInteger(1, 6, new Random());
-		switch (ramdomIndex) {
-		case 1:
-			albumImgIndex = R.drawable.default_music_album_1;
-			break;
-		case 2:
-			albumImgIndex = R.drawable.default_music_album_2;
-			break;
-		case 3:
-			albumImgIndex = R.drawable.default_music_album_3;
-			break;
-		case 4:
-			albumImgIndex = R.drawable.default_music_album_4;
-			break;
-		case 5:
-			albumImgIndex = R.drawable.default_music_album_5;
-			break;
-		case 6:
-			albumImgIndex = R.drawable.default_music_album_6;
-			break;
-		}
-
-		return BitmapFactory.decodeStream(context.getResources().openRawResource(albumImgIndex), null, sBitmapOptions);
+	/**
+	 * Get the picture embedded in the tags of a song file.
+	 * 
+	 * @return The picture or null if the song has no embedded picture.
+	 */
+	private static Bitmap getArtworkFromTags(Context context, long song_id, String path, int width, int height) {
+		if (path == null) {
+			path = getPath(context, song_id);
+		}
+
+		byte[] picture = null;
+		if (path != null) {
+			MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+			try {
+				retriever.setDataSource(path);
+				picture = retriever.getEmbeddedPicture();
+			} catch (RuntimeException ex) {
+				Dbg.w("Failed to read embedded picture of " + song_id);
+			} finally {
+				retriever.release();
+			}
+		}
+
+		Bitmap bm = null;
+		if (picture != null) {
+			BitmapFactory.Options options = new BitmapFactory.Options();
+			if (width > 0) {
+				options.inJustDecodeBounds = true;
+				BitmapFactory.decodeByteArray(picture, 0, picture.length, options);
+				options.inJustDecodeBounds = false;
+				options.inSampleSize = computeSampleSize(options.outWidth, options.outHeight, width, height);
+			}
+			options.inPreferredConfig = sBitmapOptions.inPreferredConfig;
+			options.inDither = sBitmapOptions.inDither;
+			bm = BitmapFactory.decodeByteArray(picture, 0, picture.length, options);
+			if (width > 0) {
+				bm = scaleExact(bm, width, height);
+			}
+		}
+		return bm;
+	}
+
+	/**
+	 * Get the path of a song file from the MediaStore.
+	 * 
+	 * @return The path or null if not known.
+	 */
+	private static String getPath(Context context, long song_id) {
+		String path = null;
+		Cursor cursor = null;
+		try {
+			cursor = context.getContentResolver().query(ContentUris.withAppendedId(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, song_id), new String[] { MediaStore.Audio.Media.DATA }, null,
+					null, null);
+			if (cursor != null && cursor.moveToFirst()) {
+				path = cursor.getString(0);
+			}
+		} catch (RuntimeException e) {
+			Dbg.w("Failed to get path of " + song_id);
+		} finally {
+			if (cursor != null) {
+				cursor.close();
+			}
+		}
+		return path;
+	}
+
+	/**
+	 * Decode an image so that it exactly fits the requested size. The bounds
+	 * are read first so that the image can be subsampled while decoding, then
+	 * the subsampled image is scaled to the exact size.
+	 * 
+	 * @return The scaled image or null if the image could not be decoded.
+	 * @throws FileNotFoundException
+	 *             If there is no image at the uri.
+	 */
+	private static Bitmap decodeScaled(ContentResolver res, Uri uri, int width, int height) throws FileNotFoundException {
+		ParcelFileDescriptor pfd = res.openFileDescriptor(uri, "r");
+		if (pfd == null) {
+			return null;
+		}
+
+		try {
+			FileDescriptor fd = pfd.getFileDescriptor();
+
+			BitmapFactory.Options options = new BitmapFactory.Options();
+			options.inJustDecodeBounds = true;
+			BitmapFactory.decodeFileDescriptor(fd, null, options);
+			if (options.outWidth <= 0 || options.outHeight <= 0) {
+				return null;
+			}
+
+			options.inJustDecodeBounds = false;
+			options.inSampleSize = computeSampleSize(options.outWidth, options.outHeight, width, height);
+			options.inPreferredConfig = sBitmapOptions.inPreferredConfig;
+			options.inDither = sBitmapOptions.inDither;
+			options.inDensity = sBitmapOptions.inDensity;
+			options.inTargetDensity = sBitmapOptions.inTargetDensity;
+
+			// Decode into a pooled bitmap if possible.
+			BitmapPool.prepareForDecode(options);
+			Bitmap bm;
+			try {
+				bm = BitmapFactory.decodeFileDescriptor(fd, null, options);
+			} catch (IllegalArgumentException ex) {
+				// The pooled bitmap could not be reused.
+				BitmapPool.release(options.inBitmap);
+				options.inBitmap = null;
+				bm = BitmapFactory.decodeFileDescriptor(fd, null, options);
+			}
+			return scaleExact(bm, width, height);
+		} finally {
+			closeQuietly(pfd);
+		}
+	}
+
+	/**
+	 * Get the largest power of two sample size that still decodes the image
+	 * at least as large as the requested size.
+	 */
+	private static int computeSampleSize(int imageWidth, int imageHeight, int width, int height) {
+		int sampleSize = 1;
+		while (imageWidth / (sampleSize * 2) >= width && imageHeight / (sampleSize * 2) >= height) {
+			sampleSize *= 2;
+		}
+		return sampleSize;
+	}
+
+	/**
+	 * Scale a bitmap to exactly the requested size, keeping its aspect ratio.
+	 * The parts that do not fit are cropped equally from both sides. The
+	 * source bitmap is returned to the bitmap pool if a scaled copy is
+	 * created.
+	 */
+	private static Bitmap scaleExact(Bitmap bm, int width, int height) {
+		if (bm == null || (bm.getWidth() == width && bm.getHeight() == height)) {
+			return bm;
+		}
+		Bitmap scaled = BitmapPool.acquire(width, height, Bitmap.Config.RGB_565);
+		scaled.setDensity(bm.getDensity());
+		synchronized (sScalePaint) {
+			// Compare the aspect ratios without dividing.
+			long imageAspect = (long) bm.getWidth() * height;
+			long destAspect = (long) bm.getHeight() * width;
+			if (imageAspect > destAspect) {
+				int cropWidth = (int) (destAspect / height);
+				int left = (bm.getWidth() - cropWidth) / 2;
+				sScaleSource.set(left, 0, left + cropWidth, bm.getHeight());
+			} else {
+				int cropHeight = (int) (imageAspect / width);
+				int top = (bm.getHeight() - cropHeight) / 2;
+				sScaleSource.set(0, top, bm.getWidth(), top + cropHeight);
+			}
+			sScaleDest.set(0, 0, width, height);
+			sScaleCanvas.setBitmap(scaled);
+			sScaleCanvas.drawBitmap(bm, sScaleSource, sScaleDest, sScalePaint);
+		}
+		BitmapPool.release(bm);
+		return scaled;
+	}
+
+	private static void closeQuietly(ParcelFileDescriptor pfd) {
+		try {
+			pfd.close();
+		} catch (IOException ex) {
+		}
+	}
+
+	/**
+	 * Get the default album art. The default album art is selected from the
+	 * seed, so the same seed always gives the same album art. The album art
+	 * is only decoded once and is shared, so it must not be modified.
+	 * 
+	 * @param seed
+	 *            A value identifying the track, for example the album id.
+	 */
+	public static Bitmap getDefaultArtwork(Context context, long seed) {
+		return DefaultArtwork.get(context, seed, sBitmapOptions);
+	}
+
+	/**
+	 * Identifies a decoded artwork in the artwork cache.
+	 */
+	private static final class ArtworkCacheKey {
+
+		private final long mAlbumId;
+
+		private final long mAudioId;
+
+		private final int mWidth;
+
+		private final int mHeight;
+
+		public ArtworkCacheKey(long albumId, long audioId, int width, int height) {
+			mAlbumId = albumId;
+			mAudioId = audioId;
+			mWidth = width;
+			mHeight = height;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof ArtworkCacheKey)) {
+				return false;
+			}
+			ArtworkCacheKey other = (ArtworkCacheKey) o;
+			return mAlbumId == other.mAlbumId && mAudioId == other.mAudioId && mWidth == other.mWidth && mHeight == other.mHeight;
+		}
+
+		@Override
+		public int hashCode() {
+			int result = 17;
+			result = 31 * result + (int) (mAlbumId ^ (mAlbumId >>> 32));
+			result = 31 * result + (int) (mAudioId ^ (mAudioId >>> 32));
+			result = 31 * result + mWidth;
+			result = 31 * result + mHeight;
+			return result;
+		}
+	}
+
+	/**
+	 * Least recently used cache of decoded artwork. The cache is bounded by
+	 * the number of bytes held by the cached bitmaps rather than by the number
+	 * of entries since album art comes in very different sizes.
+	 */
+	private static final class ArtworkCache {
+
+		private final LinkedHashMap<ArtworkCacheKey, Bitmap> mMap = new LinkedHashMap<ArtworkCacheKey, Bitmap>(16, 0.75f, true);
+
+		private final int mMaxBytes;
+
+		private int mBytes = 0;
+
+		private int mHitCount = 0;
+
+		private int mMissCount = 0;
+
+		private int mEvictionCount = 0;
+
+		public ArtworkCache(int maxBytes) {
+			mMaxBytes = maxBytes;
+		}
+
+		public synchronized Bitmap get(ArtworkCacheKey key) {
+			Bitmap bitmap = mMap.get(key);
+			if (bitmap != null) {
+				mHitCount++;
+			} else {
+				mMissCount++;
+			}
+			return bitmap;
+		}
+
+		public synchronized void put(ArtworkCacheKey key, Bitmap bitmap) {
+			int size = sizeOf(bitmap);
+			if (size > mMaxBytes) {
+				// Would evict everything else and still not fit.
+				return;
+			}
+
+			Bitmap previous = mMap.put(key, bitmap);
+			mBytes += size;
+			if (previous != null) {
+				mBytes -= sizeOf(previous);
+			}
+
+			// Evict least recently used entries until within budget.
+			Iterator<Map.Entry<ArtworkCacheKey, Bitmap>> iterator = mMap.entrySet().iterator();
+			while (mBytes > mMaxBytes && iterator.hasNext()) {
+				Map.Entry<ArtworkCacheKey, Bitmap> eldest = iterator.next();
+				mBytes -= sizeOf(eldest.getValue());
+				iterator.remove();
+				mEvictionCount++;
+			}
+
+			Dbg.v("Artwork cache: " + mMap.size() + " entries " + mBytes + " bytes, hits: " + mHitCount + " misses: " + mMissCount + " evictions: " + mEvictionCount);
+		}
+
+		public synchronized void clear() {
+			mMap.clear();
+			mBytes = 0;
+		}
+
+		public synchronized int getHitCount() {
+			return mHitCount;
+		}
+
+		public synchronized int getMissCount() {
+			return mMissCount;
+		}
+
+		public synchronized int getEvictionCount() {
+			return mEvictionCount;
+		}
+
+		private static int sizeOf(Bitmap bitmap) {
+			return bitmap.getRowBytes() * bitmap.getHeight();
+		}
 	}
 
 }
@@ -0,0 +1,270 @@
+package com.sonyericsson.extras.liveware.extension.oss.music;
+
+import java.util.Arrays;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.graphics.Rect;
+import android.os.BatteryManager;
+import android.os.Process;
+import android.preference.PreferenceManager;
+import android.provider.MediaStore;
+
+import com.android.music.MusicUtils;
+import com.sonyericsson.extras.liveware.extension.oss.music.player.ArtworkLoader;
+import com.sonyericsson.extras.liveware.extension.util.Dbg;
+
+/**
+ * The artwork prerenderer walks all albums in the MediaStore on a low priority
+ * background thread and stores the album art scaled to the sizes the control
+ * and the widget show it in on the registered accessories in the artwork disk
+ * cache, so that album art does not have to be decoded the first time an
+ * album is played. The albums are walked in pages ordered by id, and the last
+ * album done is saved so that the walk is resumed where it stopped, also after
+ * the process has been killed. The walk starts over if the disk cache has been
+ * cleared, or if the sizes have changed since an accessory was registered.
+ */
+class ArtworkPrerenderer implements Runnable {
+
+	private static final String LAST_ALBUM_ID = "artwork_prerender_last_album_id";
+
+	private static final String LAST_SIZES = "artwork_prerender_last_sizes";
+
+	private static final int PAGE_SIZE = 20;
+
+	/**
+	 * Delay between albums when the device is charging.
+	 */
+	private static final long DELAY_CHARGING_MS = 100;
+
+	/**
+	 * Delay between albums when the device is on battery.
+	 */
+	private static final long DELAY_ON_BATTERY_MS = 1000;
+
+	/**
+	 * Delay while artwork for the display is being loaded.
+	 */
+	private static final long DELAY_BUSY_MS = 2000;
+
+	/**
+	 * Battery level in percent below which the walk is stopped when the
+	 * device is not charging.
+	 */
+	private static final int MIN_BATTERY_PERCENT = 20;
+
+	private final Context mContext;
+
+	/**
+	 * The thread doing the walk. A thread that no longer is the current
+	 * thread has been stopped.
+	 */
+	private volatile Thread mThread = null;
+
+	/**
+	 * Create artwork prerenderer.
+	 *
+	 * @param context
+	 *            The context.
+	 */
+	public ArtworkPrerenderer(final Context context) {
+		if (context == null) {
+			throw new IllegalArgumentException("context == null");
+		}
+		mContext = context.getApplicationContext();
+	}
+
+	/**
+	 * Start the walk in the background, unless already started.
+	 */
+	public void start() {
+		if (mThread != null) {
+			return;
+		}
+		mThread = new Thread(this, "ArtworkPrerenderer");
+		mThread.start();
+	}
+
+	/**
+	 * Stop the walk. Progress is saved, so the walk is resumed when started
+	 * again.
+	 */
+	public void stop() {
+		if (mThread == null) {
+			return;
+		}
+		mThread.interrupt();
+		mThread = null;
+	}
+
+	public void run() {
+		Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+
+		int[] sizes = getArtSizes();
+		if (sizes.length == 0) {
+			Dbg.d("Artwork prerender skipped, no accessory registered");
+			return;
+		}
+		String sizesKey = Arrays.toString(sizes);
+
+		SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(mContext);
+		long lastAlbumId = preferences.getLong(LAST_ALBUM_ID, -1);
+		if (lastAlbumId >= 0 && MusicUtils.isArtworkDiskCacheEmpty(mContext)) {
+			// The cache has been cleared, so the albums done are gone.
+			Dbg.d("Artwork disk cache empty, restarting prerender");
+			lastAlbumId = -1;
+		} else if (lastAlbumId >= 0 && !sizesKey.equals(preferences.getString(LAST_SIZES, null))) {
+			// The albums done lack the new sizes. The sizes already in the
+			// cache are skipped.
+			Dbg.d("Artwork sizes changed, restarting prerender");
+			lastAlbumId = -1;
+		}
+
+		try {
+			while (!isStopped()) {
+				long[] albumIds = getAlbumIds(lastAlbumId);
+				if (albumIds == null) {
+					return;
+				}
+				if (albumIds.length == 0) {
+					Dbg.d("Artwork prerender done, last album " + lastAlbumId);
+					return;
+				}
+
+				// The battery is checked once per page, reading it registers
+				// a receiver for the sticky broadcast.
+				Intent battery = mContext.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+				boolean charging = battery == null || battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+				if (!charging) {
+					int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, 0);
+					int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, 100);
+					if (scale > 0 && level * 100 / scale < MIN_BATTERY_PERCENT) {
+						Dbg.d("Artwork prerender stopped, battery low");
+						return;
+					}
+				}
+
+				for (long albumId : albumIds) {
+					if (!waitForIdle(charging ? DELAY_CHARGING_MS : DELAY_ON_BATTERY_MS)) {
+						return;
+					}
+					if (!MusicUtils.hasArtworkDiskCacheRoom(mContext)) {
+						Dbg.d("Artwork prerender stopped, disk cache full");
+						return;
+					}
+					for (int i = 0; i < sizes.length; i += 2) {
+						MusicUtils.prerenderArtwork(mContext, albumId, sizes[i], sizes[i + 1]);
+					}
+					lastAlbumId = albumId;
+				}
+				preferences.edit().putLong(LAST_ALBUM_ID, lastAlbumId).putString(LAST_SIZES, sizesKey).commit();
+			}
+		} catch (RuntimeException e) {
+			Dbg.e("Artwork prerender failed", e);
+		} finally {
+			preferences.edit().putLong(LAST_ALBUM_ID, lastAlbumId).putString(LAST_SIZES, sizesKey).commit();
+		}
+	}
+
+	/**
+	 * Get the sizes the control and the widget show album art in, laid out
+	 * for each registered accessory.
+	 *
+	 * @return The distinct sizes, as width and height pairs. Empty if no
+	 *         accessory is registered or no layout shows album art.
+	 */
+	private int[] getArtSizes() {
+		int[] sizes = new int[0];
+		for (ScreenLayout layout : ScreenLayout.getControlLayouts(mContext, MusicControlExtension.WIDTH, MusicControlExtension.HEIGHT)) {
+			sizes = addSize(sizes, MusicControlExtension.getArtRect(layout));
+		}
+		for (ScreenLayout layout : ScreenLayout.getWidgetLayouts(mContext, MusicWidgetExtension.WIDTH, MusicWidgetExtension.HEIGHT)) {
+			sizes = addSize(sizes, MusicWidgetExtension.getInnerFrame(mContext, layout));
+		}
+		return sizes;
+	}
+
+	/**
+	 * Add the size of a rectangle to the sizes, unless empty or already
+	 * added.
+	 */
+	private static int[] addSize(int[] sizes, Rect rect) {
+		if (rect.isEmpty()) {
+			return sizes;
+		}
+		for (int i = 0; i < sizes.length; i += 2) {
+			if (sizes[i] == rect.width() && sizes[i + 1] == rect.height()) {
+				return sizes;
+			}
+		}
+		int[] added = new int[sizes.length + 2];
+		System.arraycopy(sizes, 0, added, 0, sizes.length);
+		added[sizes.length] = rect.width();
+		added[sizes.length + 1] = rect.height();
+		return added;
+	}
+
+	private boolean isStopped() {
+		return mThread != Thread.currentThread();
+	}
+
+	/**
+	 * Get the next page of album ids.
+	 *
+	 * @param lastAlbumId
+	 *            The last album id already done.
+	 * @return The album ids, empty if all albums are done, or null if the
+	 *         MediaStore could not be queried.
+	 */
+	private long[] getAlbumIds(long lastAlbumId) {
+		Cursor cursor = null;
+		try {
+			// The page size is part of the sort order, so the provider only
+			// reads one page.
+			cursor = mContext.getContentResolver().query(MediaStore.Audio.Albums.EXTERNAL_CONTENT_URI, new String[] { MediaStore.Audio.Albums._ID },
+					MediaStore.Audio.Albums._ID + ">?", new String[] { String.valueOf(lastAlbumId) }, MediaStore.Audio.Albums._ID + " ASC LIMIT " + PAGE_SIZE);
+			if (cursor == null) {
+				return null;
+			}
+			long[] albumIds = new long[Math.min(PAGE_SIZE, cursor.getCount())];
+			for (int i = 0; i < albumIds.length && cursor.moveToNext(); i++) {
+				albumIds[i] = cursor.getLong(0);
+			}
+			return albumIds;
+		} catch (RuntimeException e) {
+			Dbg.w("Failed to query albums");
+			return null;
+		} finally {
+			if (cursor != null) {
+				cursor.close();
+			}
+		}
+	}
+
+	/**
+	 * Wait before the next album, and as long as artwork for the display is
+	 * being loaded.
+	 *
+	 * @param delay
+	 *            The time to wait, longer on battery.
+	 * @return True to continue, false if the walk should stop.
+	 */
+	private boolean waitForIdle(long delay) {
+		try {
+			while (!isStopped()) {
+				Thread.sleep(delay);
+				if (!ArtworkLoader.isBusy()) {
+					return !isStopped();
+				}
+				Thread.sleep(DELAY_BUSY_MS);
+			}
+		} catch (InterruptedException e) {
+			// Stopped.
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,218 @@
+package com.sonyericsson.extras.liveware.extension.oss.music;
+
+import java.util.ArrayList;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.os.Build;
+import android.util.SparseArray;
+
+import com.sonyericsson.extras.liveware.extension.util.Dbg;
+
+/**
+ * The bitmap pool keeps bitmaps that are no longer used so that their pixel
+ * buffers can be reused for new frames and decoded images instead of being
+ * allocated again. Bitmaps are pooled by size and config, and the pool is
+ * bounded by the number of bytes held by the pooled bitmaps. Acquiring and
+ * releasing pooled bitmaps does not allocate any objects.
+ * <p>
+ * A bitmap that has been released must not be used by the caller anymore.
+ */
+public class BitmapPool {
+
+	/**
+	 * Max number of bytes held by the pooled bitmaps.
+	 */
+	private static final int MAX_BYTES = 1024 * 1024;
+
+	/**
+	 * The pooled bitmaps by size, one array for each config.
+	 */
+	@SuppressWarnings("unchecked")
+	private static final SparseArray<ArrayList<Bitmap>>[] sPool = new SparseArray[Bitmap.Config.values().length];
+
+	private static int sBytes = 0;
+
+	private static final Rect sSourceRect = new Rect();
+
+	private static final Rect sDestRect = new Rect();
+
+	private static final Canvas sCanvas = new Canvas();
+
+	static {
+		for (int i = 0; i < sPool.length; i++) {
+			sPool[i] = new SparseArray<ArrayList<Bitmap>>();
+		}
+	}
+
+	/**
+	 * Get a mutable bitmap of the requested size and config. The bitmap is
+	 * taken from the pool if possible, and is cleared.
+	 *
+	 * @param width
+	 *            The width.
+	 * @param height
+	 *            The height.
+	 * @param config
+	 *            The bitmap config.
+	 * @return The bitmap.
+	 */
+	public static Bitmap acquire(int width, int height, Bitmap.Config config) {
+		Bitmap bitmap = null;
+		synchronized (sPool) {
+			ArrayList<Bitmap> bitmaps = sPool[config.ordinal()].get(getKey(width, height));
+			if (bitmaps != null && !bitmaps.isEmpty()) {
+				bitmap = bitmaps.remove(bitmaps.size() - 1);
+				sBytes -= sizeOf(bitmap);
+			}
+		}
+
+		if (bitmap == null) {
+			return Bitmap.createBitmap(width, height, config);
+		}
+		bitmap.eraseColor(0);
+		return bitmap;
+	}
+
+	/**
+	 * Get a bitmap from the pool holding a copy of part of another bitmap.
+	 *
+	 * @param source
+	 *            The bitmap to copy from.
+	 * @param x
+	 *            The x position of the part to copy.
+	 * @param y
+	 *            The y position of the part to copy.
+	 * @param width
+	 *            The width of the part to copy.
+	 * @param height
+	 *            The height of the part to copy.
+	 * @return The copy. Should be released when no longer used.
+	 */
+	public static Bitmap acquireRegion(Bitmap source, int x, int y, int width, int height) {
+		Bitmap bitmap = acquire(width, height, source.getConfig());
+		bitmap.setDensity(source.getDensity());
+		synchronized (sSourceRect) {
+			sSourceRect.set(x, y, x + width, y + height);
+			sDestRect.set(0, 0, width, height);
+			sCanvas.setBitmap(bitmap);
+			sCanvas.drawBitmap(source, sSourceRect, sDestRect, null);
+		}
+		return bitmap;
+	}
+
+	/**
+	 * Return a bitmap to the pool. The bitmap must not be used by the caller
+	 * after it has been released.
+	 *
+	 * @param bitmap
+	 *            The bitmap. May be null.
+	 */
+	public static void release(Bitmap bitmap) {
+		if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable() || bitmap.getConfig() == null) {
+			return;
+		}
+
+		int size = sizeOf(bitmap);
+		synchronized (sPool) {
+			if (sBytes + size > MAX_BYTES) {
+				// Pool is full. Let the bitmap be garbage collected.
+				Dbg.v("Bitmap pool full, dropping " + bitmap.getWidth() + "x" + bitmap.getHeight());
+				return;
+			}
+
+			SparseArray<ArrayList<Bitmap>> pool = sPool[bitmap.getConfig().ordinal()];
+			int key = getKey(bitmap.getWidth(), bitmap.getHeight());
+			ArrayList<Bitmap> bitmaps = pool.get(key);
+			if (bitmaps == null) {
+				bitmaps = new ArrayList<Bitmap>();
+				pool.put(key, bitmaps);
+			} else if (bitmaps.contains(bitmap)) {
+				return;
+			}
+			bitmaps.add(bitmap);
+			sBytes += size;
+		}
+	}
+
+	/**
+	 * Prepare decode options so that the image is decoded into a pooled
+	 * bitmap if a suitable one is available. The bounds of the image must
+	 * already be decoded into the options. Does nothing on platforms that do
+	 * not support decoding into an existing bitmap.
+	 *
+	 * @param options
+	 *            The decode options.
+	 */
+	@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+	public static void prepareForDecode(BitmapFactory.Options options) {
+		options.inMutable = true;
+		options.inBitmap = null;
+		if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+			return;
+		}
+
+		int sampleSize = Math.max(1, options.inSampleSize);
+		int width = (options.outWidth + sampleSize - 1) / sampleSize;
+		int height = (options.outHeight + sampleSize - 1) / sampleSize;
+		Bitmap.Config config = options.inPreferredConfig != null ? options.inPreferredConfig : Bitmap.Config.ARGB_8888;
+
+		Bitmap bitmap = null;
+		synchronized (sPool) {
+			if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+				// Any bitmap large enough can be reused.
+				int needed = width * height * getBytesPerPixel(config);
+				for (int p = 0; p < sPool.length && bitmap == null; p++) {
+					for (int k = 0; k < sPool[p].size() && bitmap == null; k++) {
+						ArrayList<Bitmap> bitmaps = sPool[p].valueAt(k);
+						for (int i = 0; i < bitmaps.size(); i++) {
+							if (getAllocationByteCount(bitmaps.get(i)) >= needed) {
+								bitmap = bitmaps.remove(i);
+								break;
+							}
+						}
+					}
+				}
+			} else if (sampleSize == 1) {
+				// Only a bitmap of exactly the same size can be reused.
+				ArrayList<Bitmap> bitmaps = sPool[config.ordinal()].get(getKey(width, height));
+				if (bitmaps != null && !bitmaps.isEmpty()) {
+					bitmap = bitmaps.remove(bitmaps.size() - 1);
+				}
+			}
+			if (bitmap != null) {
+				sBytes -= sizeOf(bitmap);
+			}
+		}
+		options.inBitmap = bitmap;
+	}
+
+	@TargetApi(Build.VERSION_CODES.KITKAT)
+	private static int getAllocationByteCount(Bitmap bitmap) {
+		return bitmap.getAllocationByteCount();
+	}
+
+	private static int getBytesPerPixel(Bitmap.Config config) {
+		if (config == Bitmap.Config.ARGB_8888) {
+			return 4;
+		} else if (config == Bitmap.Config.ALPHA_8) {
+			return 1;
+		}
+		return 2;
+	}
+
+	/**
+	 * Get the key of a bitmap size. Unique for sizes up to 65535 pixels.
+	 */
+	private static int getKey(int width, int height) {
+		return (width << 16) | (height & 0xffff);
+	}
+
+	private static int sizeOf(Bitmap bitmap) {
+		return bitmap.getRowBytes() * bitmap.getHeight();
+	}
+
+}
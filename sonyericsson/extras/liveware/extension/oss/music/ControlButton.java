@@ -81,6 +81,15 @@ public class ControlButton {
         return mRect.top;
     }
 
+    /**
+     * Get the bounds of the button.
+     *
+     * @return The bounds. Must not be modified.
+     */
+    public Rect getRect() {
+        return mRect;
+    }
+
     /**
      * Get the button width.
      *
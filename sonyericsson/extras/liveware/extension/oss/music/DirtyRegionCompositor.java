@@ -0,0 +1,208 @@
+package com.sonyericsson.extras.liveware.extension.oss.music;
+
+import android.graphics.Rect;
+import android.util.SparseArray;
+
+/**
+ * The dirty region compositor models a screen as named regions and keeps
+ * track of which regions have to be sent to the accessory. The dirty regions
+ * are merged into as few rectangles as is cheaper to send, and into the full
+ * screen when most of it is dirty. The rectangles are preallocated, so
+ * invalidating and flushing does not allocate any objects.
+ */
+class DirtyRegionCompositor {
+
+	/**
+	 * The cost of sending an extra rectangle, in pixels. Two rectangles are
+	 * merged if their union does not add more pixels than this.
+	 */
+	private static final int RECT_COST_PIXELS = 256;
+
+	/**
+	 * Fraction of the screen in percent above which the full screen is sent.
+	 */
+	private static final int FULL_SCREEN_PERCENT = 60;
+
+	/**
+	 * Max number of dirty rectangles. If more rectangles are invalidated the
+	 * full screen is dirty.
+	 */
+	private static final int MAX_DIRTY = 64;
+
+	private final Rect mScreen;
+
+	private final SparseArray<Rect> mRegions = new SparseArray<Rect>();
+
+	private final Rect[] mDirty = new Rect[MAX_DIRTY];
+
+	private int mDirtyCount = 0;
+
+	private final Rect mUnion = new Rect();
+
+	/**
+	 * Create dirty region compositor.
+	 *
+	 * @param width
+	 *            The screen width.
+	 * @param height
+	 *            The screen height.
+	 */
+	public DirtyRegionCompositor(final int width, final int height) {
+		mScreen = new Rect(0, 0, width, height);
+		for (int i = 0; i < mDirty.length; i++) {
+			mDirty[i] = new Rect();
+		}
+	}
+
+	/**
+	 * Define a region.
+	 *
+	 * @param id
+	 *            The id of the region.
+	 * @param rect
+	 *            The bounds of the region. Clipped to the screen.
+	 */
+	public void setRegion(int id, Rect rect) {
+		Rect region = new Rect(rect);
+		if (!region.intersect(mScreen)) {
+			region.setEmpty();
+		}
+		mRegions.put(id, region);
+	}
+
+	/**
+	 * Get the bounds of a region.
+	 *
+	 * @param id
+	 *            The id of the region.
+	 * @return The bounds, or null if the region is not defined.
+	 */
+	public Rect getRegion(int id) {
+		return mRegions.get(id);
+	}
+
+	/**
+	 * Mark a region as changed.
+	 *
+	 * @param id
+	 *            The id of the region.
+	 */
+	public void invalidate(int id) {
+		Rect region = mRegions.get(id);
+		if (region != null) {
+			invalidate(region);
+		}
+	}
+
+	/**
+	 * Mark a rectangle that is not a named region as changed.
+	 *
+	 * @param rect
+	 *            The rectangle. Clipped to the screen.
+	 */
+	public void invalidate(Rect rect) {
+		if (mDirtyCount == MAX_DIRTY) {
+			invalidateAll();
+			return;
+		}
+		Rect dirty = mDirty[mDirtyCount];
+		dirty.set(rect);
+		if (dirty.intersect(mScreen)) {
+			mDirtyCount++;
+		}
+	}
+
+	/**
+	 * Mark the full screen as changed.
+	 */
+	public void invalidateAll() {
+		mDirty[0].set(mScreen);
+		mDirtyCount = 1;
+	}
+
+	/**
+	 * Check if any region has changed.
+	 *
+	 * @return True if there is something to send.
+	 */
+	public boolean isDirty() {
+		return mDirtyCount > 0;
+	}
+
+	/**
+	 * Check if a rectangle is the full screen.
+	 *
+	 * @param rect
+	 *            The rectangle.
+	 * @return True if it covers the full screen.
+	 */
+	public boolean isFullScreen(Rect rect) {
+		return rect.contains(mScreen);
+	}
+
+	/**
+	 * Merge the dirty rectangles and mark all regions as unchanged. The merged
+	 * rectangles are read with {@link #getRect(int)} until the next change.
+	 *
+	 * @return The number of merged dirty rectangles. 0 if nothing has changed.
+	 */
+	public int flush() {
+		// Merge pairs of rectangles as long as sending the union is cheaper
+		// than sending them separately.
+		boolean merged = true;
+		while (merged) {
+			merged = false;
+			for (int i = 0; i < mDirtyCount && !merged; i++) {
+				for (int j = i + 1; j < mDirtyCount && !merged; j++) {
+					Rect a = mDirty[i];
+					Rect b = mDirty[j];
+					mUnion.set(a);
+					mUnion.union(b);
+					if (area(mUnion) <= area(a) + area(b) + RECT_COST_PIXELS) {
+						a.set(mUnion);
+						removeDirty(j);
+						merged = true;
+					}
+				}
+			}
+		}
+
+		int dirtyArea = 0;
+		for (int i = 0; i < mDirtyCount; i++) {
+			dirtyArea += area(mDirty[i]);
+		}
+		if (dirtyArea * 100 > area(mScreen) * FULL_SCREEN_PERCENT) {
+			invalidateAll();
+		}
+
+		int count = mDirtyCount;
+		mDirtyCount = 0;
+		return count;
+	}
+
+	/**
+	 * Get a merged dirty rectangle.
+	 *
+	 * @param index
+	 *            The index, less than the count returned by {@link #flush()}.
+	 * @return The rectangle. Must not be modified.
+	 */
+	public Rect getRect(int index) {
+		return mDirty[index];
+	}
+
+	/**
+	 * Remove a dirty rectangle, keeping the removed instance for reuse.
+	 */
+	private void removeDirty(int index) {
+		Rect removed = mDirty[index];
+		mDirtyCount--;
+		mDirty[index] = mDirty[mDirtyCount];
+		mDirty[mDirtyCount] = removed;
+	}
+
+	private static int area(Rect rect) {
+		return rect.width() * rect.height();
+	}
+
+}
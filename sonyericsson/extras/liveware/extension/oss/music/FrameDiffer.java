@@ -0,0 +1,150 @@
+package com.sonyericsson.extras.liveware.extension.oss.music;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+
+/**
+ * The frame differ keeps a copy of the last frame sent to an accessory and
+ * finds the parts of a new frame that differ from it. The frames are compared
+ * in fixed size tiles, and the changed tiles are merged into rectangles, so
+ * that only pixels that actually changed have to be sent. All buffers are
+ * preallocated, so comparing does not allocate any objects.
+ */
+class FrameDiffer {
+
+	private static final int TILE_SIZE = 16;
+
+	private final int mWidth;
+
+	private final int mHeight;
+
+	/**
+	 * The pixels last sent to the accessory.
+	 */
+	private final int[] mLastFrame;
+
+	/**
+	 * The pixels of the frame being compared.
+	 */
+	private final int[] mPixels;
+
+	private final DirtyRegionCompositor mCompositor;
+
+	private boolean mIsValid = false;
+
+	private final Rect mBounds = new Rect();
+
+	private final Rect mRun = new Rect();
+
+	/**
+	 * Create frame differ.
+	 *
+	 * @param width
+	 *            The screen width.
+	 * @param height
+	 *            The screen height.
+	 */
+	public FrameDiffer(final int width, final int height) {
+		mWidth = width;
+		mHeight = height;
+		mLastFrame = new int[width * height];
+		mPixels = new int[width * height];
+		mCompositor = new DirtyRegionCompositor(width, height);
+	}
+
+	/**
+	 * Forget the last frame, for example when the accessory may show
+	 * something else. The next frame is sent in full.
+	 */
+	public void reset() {
+		mIsValid = false;
+	}
+
+	/**
+	 * Compare a frame, or a part of a frame, to the last frame sent. The
+	 * frame is then remembered as sent.
+	 *
+	 * @param bitmap
+	 *            The pixels to send.
+	 * @param x
+	 *            The x position of the bitmap on the screen.
+	 * @param y
+	 *            The y position of the bitmap on the screen.
+	 * @return The number of changed rectangles, read with
+	 *         {@link #getRect(int)}. 0 if nothing changed.
+	 */
+	public int diff(Bitmap bitmap, int x, int y) {
+		Rect bounds = mBounds;
+		bounds.set(x, y, x + bitmap.getWidth(), y + bitmap.getHeight());
+		if (!bounds.intersect(0, 0, mWidth, mHeight)) {
+			return 0;
+		}
+
+		bitmap.getPixels(mPixels, bounds.top * mWidth + bounds.left, mWidth, bounds.left - x, bounds.top - y, bounds.width(), bounds.height());
+
+		if (!mIsValid) {
+			// Unknown what the accessory shows. Everything has changed.
+			mCompositor.invalidate(bounds);
+		} else {
+			// Compare tile by tile, and merge changed tiles next to each other
+			// on the same tile row before handing them to the compositor.
+			Rect run = mRun;
+			for (int tileTop = bounds.top; tileTop < bounds.bottom; tileTop += TILE_SIZE) {
+				int tileBottom = Math.min(tileTop + TILE_SIZE, bounds.bottom);
+				run.setEmpty();
+				for (int tileLeft = bounds.left; tileLeft < bounds.right; tileLeft += TILE_SIZE) {
+					int tileRight = Math.min(tileLeft + TILE_SIZE, bounds.right);
+					if (isTileChanged(tileLeft, tileTop, tileRight, tileBottom)) {
+						if (run.isEmpty()) {
+							run.set(tileLeft, tileTop, tileRight, tileBottom);
+						} else {
+							run.right = tileRight;
+						}
+					} else if (!run.isEmpty()) {
+						mCompositor.invalidate(run);
+						run.setEmpty();
+					}
+				}
+				if (!run.isEmpty()) {
+					mCompositor.invalidate(run);
+				}
+			}
+		}
+
+		// Remember the new pixels as sent.
+		for (int row = bounds.top; row < bounds.bottom; row++) {
+			int offset = row * mWidth + bounds.left;
+			System.arraycopy(mPixels, offset, mLastFrame, offset, bounds.width());
+		}
+		if (bounds.left == 0 && bounds.top == 0 && bounds.right == mWidth && bounds.bottom == mHeight) {
+			mIsValid = true;
+		}
+
+		return mCompositor.flush();
+	}
+
+	/**
+	 * Get a changed rectangle found by the last {@link #diff(Bitmap, int, int)}.
+	 *
+	 * @param index
+	 *            The index.
+	 * @return The rectangle in screen coordinates. The full screen if most of
+	 *         it changed. Must not be modified.
+	 */
+	public Rect getRect(int index) {
+		return mCompositor.getRect(index);
+	}
+
+	private boolean isTileChanged(int left, int top, int right, int bottom) {
+		for (int row = top; row < bottom; row++) {
+			int offset = row * mWidth;
+			for (int i = offset + left; i < offset + right; i++) {
+				if (mPixels[i] != mLastFrame[i]) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,396 @@
+package com.sonyericsson.extras.liveware.extension.oss.music;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import com.sonyericsson.extras.liveware.extension.util.Dbg;
+import com.sonyericsson.extras.liveware.extension.util.registration.DeviceInfo;
+import com.sonyericsson.extras.liveware.extension.util.registration.DisplayInfo;
+import com.sonyericsson.extras.liveware.extension.util.registration.HostApplicationInfo;
+import com.sonyericsson.extras.liveware.extension.util.registration.RegistrationAdapter;
+
+/**
+ * The frame encoder is the output stage of an extension. It quantizes the
+ * frames, which are rendered with 8 bits per channel, to the number of colors
+ * the accessory display can show, using ordered dithering. Displays with few
+ * colors get grayscale images with as few bits per pixel as possible. The
+ * quantized image is encoded in the format that is smallest, so less data is
+ * sent to the accessory. Transparent parts are sent as black, unless the
+ * encoder keeps the alpha channel for a host application that blends the
+ * image with its own background.
+ */
+class FrameEncoder {
+
+	/**
+	 * Number of colors assumed if the host application does not tell.
+	 */
+	public static final int DEFAULT_COLORS = 65536;
+
+	/**
+	 * Displays with at most this many bits per pixel are treated as
+	 * grayscale.
+	 */
+	private static final int MAX_GRAY_BITS = 4;
+
+	/**
+	 * 4x4 ordered dither matrix.
+	 */
+	private static final int[] BAYER = { 0, 8, 2, 10, 12, 4, 14, 6, 3, 11, 1, 9, 15, 7, 13, 5 };
+
+	private static final int MAX_PALETTE_SIZE = 256;
+
+	/**
+	 * Size of the hash table used to build the palette. A power of two, at
+	 * least twice the max palette size.
+	 */
+	private static final int PALETTE_HASH_SIZE = 1024;
+
+	private final Context mContext;
+
+	private final String mHostAppPackageName;
+
+	private final int mWidth;
+
+	private final int mHeight;
+
+	private final boolean mHasAlpha;
+
+	private boolean mIsDisplayKnown = false;
+
+	private boolean mIsGray = false;
+
+	private int mGrayBits = 0;
+
+	private int mRedBits = 8;
+
+	private int mGreenBits = 8;
+
+	private int mBlueBits = 8;
+
+	private final PngEncoder mPngEncoder = new PngEncoder();
+
+	private final ByteArrayOutputStream mOut = new ByteArrayOutputStream(4096);
+
+	private final ByteArrayOutputStream mPlatformOut = new ByteArrayOutputStream(4096);
+
+	private int[] mPixels = new int[0];
+
+	private byte[] mSamples = new byte[0];
+
+	private final int[] mPalette = new int[MAX_PALETTE_SIZE];
+
+	private final int[] mHashColors = new int[PALETTE_HASH_SIZE];
+
+	private final int[] mHashIndices = new int[PALETTE_HASH_SIZE];
+
+	private long mFrameCount = 0;
+
+	private long mByteCount = 0;
+
+	/**
+	 * Create frame encoder.
+	 *
+	 * @param context
+	 *            The context.
+	 * @param hostAppPackageName
+	 *            The package name of the host application, used to find the
+	 *            display of the accessory.
+	 * @param width
+	 *            The width of the screen.
+	 * @param height
+	 *            The height of the screen.
+	 * @param hasAlpha
+	 *            True to keep the alpha channel, false to send transparent
+	 *            parts as black.
+	 */
+	public FrameEncoder(final Context context, final String hostAppPackageName, final int width, final int height, final boolean hasAlpha) {
+		if (context == null) {
+			throw new IllegalArgumentException("context == null");
+		}
+		mContext = context;
+		mHostAppPackageName = hostAppPackageName;
+		mWidth = width;
+		mHeight = height;
+		mHasAlpha = hasAlpha;
+	}
+
+	/**
+	 * Encode a frame, or a part of a frame, to send to the accessory.
+	 *
+	 * @param bitmap
+	 *            The pixels to send. Not modified.
+	 * @param x
+	 *            The x position of the bitmap on the screen.
+	 * @param y
+	 *            The y position of the bitmap on the screen.
+	 * @return The encoded image.
+	 */
+	public byte[] encode(Bitmap bitmap, int x, int y) {
+		if (!mIsDisplayKnown) {
+			setColors(getDisplayColors());
+			mIsDisplayKnown = true;
+		}
+
+		int width = bitmap.getWidth();
+		int height = bitmap.getHeight();
+		int size = width * height;
+		if (mPixels.length < size) {
+			mPixels = new int[size];
+			mSamples = new byte[size];
+		}
+		bitmap.getPixels(mPixels, 0, width, 0, 0, width, height);
+
+		mOut.reset();
+		ByteArrayOutputStream out = mOut;
+		String format;
+		if (mIsGray && !mHasAlpha) {
+			quantizeGray(width, height, x, y);
+			mPngEncoder.encode(mOut, mSamples, width, height, mGrayBits, PngEncoder.COLOR_TYPE_GRAY, null, 0);
+			format = "gray";
+		} else {
+			quantizeColor(width, height, x, y);
+
+			// Few colors, such as in text, buttons or the volume bar, are
+			// smaller with a palette. Otherwise the platform encoder is used.
+			int paletteSize = buildPalette(size);
+			if (paletteSize > 0) {
+				int bitDepth = paletteSize <= 2 ? 1 : paletteSize <= 4 ? 2 : paletteSize <= 16 ? 4 : 8;
+				mPngEncoder.encode(mOut, mSamples, width, height, bitDepth, PngEncoder.COLOR_TYPE_PALETTE, mPalette, paletteSize);
+				format = "palette";
+			} else {
+				format = null;
+			}
+
+			if (paletteSize == 0 || paletteSize > 16) {
+				// Not obvious which is smaller.
+				encodePlatform(width, height);
+				if (format == null || mPlatformOut.size() < mOut.size()) {
+					out = mPlatformOut;
+					format = "rgb";
+				}
+			}
+		}
+
+		mFrameCount++;
+		mByteCount += out.size();
+		if (MusicExtension.DEBUG_UPDATES) {
+			Dbg.v("Encoded " + width + "x" + height + " as " + format + ": " + out.size() + " bytes, average " + (mByteCount / mFrameCount));
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Release the native memory held by the encoder. The encoder must not be
+	 * used after it has been released.
+	 */
+	public void release() {
+		mPngEncoder.release();
+	}
+
+	/**
+	 * Set the number of colors the display can show.
+	 */
+	private void setColors(int colors) {
+		int bits = 0;
+		while (bits < 24 && (1L << (bits + 1)) <= colors) {
+			bits++;
+		}
+		if (bits <= MAX_GRAY_BITS) {
+			mIsGray = true;
+			mGrayBits = bits <= 1 ? 1 : bits <= 2 ? 2 : 4;
+		} else {
+			mIsGray = false;
+			mRedBits = Math.min(bits / 3, 8);
+			mBlueBits = Math.min(bits / 3, 8);
+			mGreenBits = Math.min(bits - mRedBits - mBlueBits, 8);
+		}
+		Dbg.d("Display colors: " + colors + (mIsGray ? " gray " + mGrayBits : " rgb " + mRedBits + mGreenBits + mBlueBits));
+	}
+
+	/**
+	 * Get the number of colors of the accessory display, from the
+	 * registration info of the host application.
+	 */
+	private int getDisplayColors() {
+		int colors = DEFAULT_COLORS;
+		try {
+			HostApplicationInfo hostApp = RegistrationAdapter.getHostApplication(mContext, mHostAppPackageName);
+			if (hostApp != null) {
+				// Use the display of the screen size. The widget is smaller
+				// than the display, so fall back to the first display.
+				DisplayInfo match = null;
+				DisplayInfo first = null;
+				List<DeviceInfo> devices = hostApp.getDevices();
+				for (DeviceInfo device : devices) {
+					for (DisplayInfo display : device.getDisplays()) {
+						if (first == null) {
+							first = display;
+						}
+						if (match == null && display.sizeEquals(mWidth, mHeight)) {
+							match = display;
+						}
+					}
+				}
+				if (match == null) {
+					match = first;
+				}
+				if (match != null && match.getColors() > 0) {
+					colors = match.getColors();
+				}
+			}
+		} catch (RuntimeException e) {
+			Dbg.e("Failed to read display info", e);
+		}
+		return colors;
+	}
+
+	/**
+	 * Quantize the pixels to gray levels, stored in the samples.
+	 */
+	private void quantizeGray(int width, int height, int offsetX, int offsetY) {
+		int levels = (1 << mGrayBits) - 1;
+		for (int row = 0; row < height; row++) {
+			int ditherRow = ((row + offsetY) & 3) * 4;
+			for (int column = 0; column < width; column++) {
+				int i = row * width + column;
+				int pixel = mPixels[i];
+				int alpha = pixel >>> 24;
+				int gray = (77 * ((pixel >> 16) & 0xff) + 150 * ((pixel >> 8) & 0xff) + 29 * (pixel & 0xff)) >> 8;
+				// Transparent parts are shown as black.
+				gray = gray * alpha / 255;
+				mSamples[i] = (byte) dither(gray, levels, BAYER[ditherRow + ((column + offsetX) & 3)]);
+			}
+		}
+	}
+
+	/**
+	 * Quantize the pixels to the color depth of the display, in place. Gray
+	 * displays are only quantized here if the alpha channel is kept.
+	 */
+	private void quantizeColor(int width, int height, int offsetX, int offsetY) {
+		int grayLevels = (1 << mGrayBits) - 1;
+		int redLevels = (1 << mRedBits) - 1;
+		int greenLevels = (1 << mGreenBits) - 1;
+		int blueLevels = (1 << mBlueBits) - 1;
+		boolean isFullDepth = !mIsGray && mRedBits == 8 && mGreenBits == 8 && mBlueBits == 8;
+		for (int row = 0; row < height; row++) {
+			int ditherRow = ((row + offsetY) & 3) * 4;
+			for (int column = 0; column < width; column++) {
+				int i = row * width + column;
+				int pixel = mPixels[i];
+				int alpha = pixel >>> 24;
+				int red = (pixel >> 16) & 0xff;
+				int green = (pixel >> 8) & 0xff;
+				int blue = pixel & 0xff;
+				if (mHasAlpha) {
+					if (alpha == 0) {
+						// All transparent pixels share one palette color.
+						mPixels[i] = 0;
+						continue;
+					}
+				} else {
+					// Transparent parts are shown as black.
+					red = red * alpha / 255;
+					green = green * alpha / 255;
+					blue = blue * alpha / 255;
+					alpha = 0xff;
+				}
+				int threshold = BAYER[ditherRow + ((column + offsetX) & 3)];
+				if (mIsGray) {
+					int gray = (77 * red + 150 * green + 29 * blue) >> 8;
+					gray = dither(gray, grayLevels, threshold) * 255 / grayLevels;
+					red = gray;
+					green = gray;
+					blue = gray;
+				} else if (!isFullDepth) {
+					red = dither(red, redLevels, threshold) * 255 / redLevels;
+					green = dither(green, greenLevels, threshold) * 255 / greenLevels;
+					blue = dither(blue, blueLevels, threshold) * 255 / blueLevels;
+				}
+				mPixels[i] = (alpha << 24) | (red << 16) | (green << 8) | blue;
+			}
+		}
+	}
+
+	/**
+	 * Quantize a value to a number of levels.
+	 *
+	 * @param value
+	 *            The value, 0 to 255.
+	 * @param levels
+	 *            The max level.
+	 * @param threshold
+	 *            The dither threshold, 0 to 15.
+	 * @return The level, 0 to levels.
+	 */
+	private static int dither(int value, int levels, int threshold) {
+		int level = (value * levels + threshold * 16 + 8) / 255;
+		return level > levels ? levels : level;
+	}
+
+	/**
+	 * Build a palette of the quantized pixels, and store the palette index of
+	 * each pixel in the samples.
+	 *
+	 * @return The number of colors, or 0 if there are too many.
+	 */
+	private int buildPalette(int size) {
+		for (int i = 0; i < PALETTE_HASH_SIZE; i++) {
+			mHashIndices[i] = -1;
+		}
+		int paletteSize = 0;
+		for (int i = 0; i < size; i++) {
+			int color = mPixels[i];
+			int slot = (color * 0x9e3779b1) >>> 22;
+			while (mHashIndices[slot] >= 0 && mHashColors[slot] != color) {
+				slot = (slot + 1) & (PALETTE_HASH_SIZE - 1);
+			}
+			if (mHashIndices[slot] < 0) {
+				if (paletteSize == MAX_PALETTE_SIZE) {
+					return 0;
+				}
+				mHashColors[slot] = color;
+				mHashIndices[slot] = paletteSize;
+				mPalette[paletteSize] = color;
+				paletteSize++;
+			}
+			mSamples[i] = (byte) mHashIndices[slot];
+		}
+		return paletteSize;
+	}
+
+	/**
+	 * Encode the quantized pixels with the platform encoder. The alpha channel
+	 * is only encoded if it is kept.
+	 */
+	private void encodePlatform(int width, int height) {
+		Bitmap bitmap = BitmapPool.acquire(width, height, Bitmap.Config.ARGB_8888);
+		bitmap.setPixels(mPixels, 0, width, 0, 0, width, height);
+		if (!mHasAlpha) {
+			setOpaque(bitmap, true);
+		}
+		mPlatformOut.reset();
+		bitmap.compress(Bitmap.CompressFormat.PNG, 100, mPlatformOut);
+		if (!mHasAlpha) {
+			setOpaque(bitmap, false);
+		}
+		BitmapPool.release(bitmap);
+	}
+
+	/**
+	 * Mark a bitmap as opaque, so that the alpha channel is not encoded. Does
+	 * nothing on platforms that do not support it.
+	 */
+	@TargetApi(Build.VERSION_CODES.HONEYCOMB_MR1)
+	private static void setOpaque(Bitmap bitmap, boolean isOpaque) {
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB_MR1) {
+			bitmap.setHasAlpha(!isOpaque);
+		}
+	}
+
+}
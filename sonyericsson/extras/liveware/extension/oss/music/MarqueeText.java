@@ -0,0 +1,159 @@
+package com.sonyericsson.extras.liveware.extension.oss.music;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.text.TextPaint;
+import android.util.DisplayMetrics;
+
+/**
+ * The marquee text scrolls a text that is too wide to be shown in full. The
+ * full text is rendered once into a strip, and each step of the animation
+ * only draws the strip at a new offset.
+ */
+class MarqueeText {
+
+	/**
+	 * Space between the end of the text and the start of the next lap, in
+	 * pixels.
+	 */
+	private static final int GAP_PX = 24;
+
+	/**
+	 * Max width of the strip. Longer texts are cut.
+	 */
+	private static final int MAX_STRIP_WIDTH = 2048;
+
+	private final TextPaint mPaint;
+
+	private final int mHeight;
+
+	private final int mBaseline;
+
+	private String mText = null;
+
+	private Bitmap mStrip = null;
+
+	private int mOffset = 0;
+
+	/**
+	 * Create marquee text.
+	 *
+	 * @param paint
+	 *            The paint to draw the text with.
+	 * @param height
+	 *            The height of the strip.
+	 * @param baseline
+	 *            The y position of the baseline in the strip.
+	 */
+	public MarqueeText(final TextPaint paint, final int height, final int baseline) {
+		mPaint = new TextPaint(paint);
+		mPaint.setTextAlign(Paint.Align.LEFT);
+		mHeight = height;
+		mBaseline = baseline;
+	}
+
+	/**
+	 * Set the text to show. The text is rendered into a strip if it does not
+	 * fit.
+	 *
+	 * @param text
+	 *            The text, or null.
+	 * @param maxWidth
+	 *            The width the text is shown in.
+	 * @return True if the text does not fit and has to scroll.
+	 */
+	public boolean setText(String text, int maxWidth) {
+		if (Utils.equalsNullSafe(text, mText)) {
+			return isScrolling();
+		}
+		mText = text;
+		mOffset = 0;
+		release();
+
+		if (text != null) {
+			int textWidth = (int) Math.ceil(mPaint.measureText(text));
+			if (textWidth > maxWidth) {
+				mStrip = Bitmap.createBitmap(Math.min(textWidth + GAP_PX, MAX_STRIP_WIDTH), mHeight, Bitmap.Config.ARGB_8888);
+				mStrip.setDensity(DisplayMetrics.DENSITY_DEFAULT);
+				new Canvas(mStrip).drawText(text, 0, mBaseline, mPaint);
+			}
+		}
+		return isScrolling();
+	}
+
+	/**
+	 * Check if the text has to scroll.
+	 *
+	 * @return True if the text does not fit.
+	 */
+	public boolean isScrolling() {
+		return mStrip != null;
+	}
+
+	/**
+	 * Scroll the text.
+	 *
+	 * @param step
+	 *            The number of pixels to scroll.
+	 * @return True if the text is back at its start.
+	 */
+	public boolean scroll(int step) {
+		if (mStrip == null) {
+			return true;
+		}
+		mOffset += step;
+		if (mOffset >= mStrip.getWidth()) {
+			mOffset = 0;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Draw the visible part of the text.
+	 *
+	 * @param canvas
+	 *            The canvas to draw in.
+	 * @param clip
+	 *            The bounds the text is shown in. The top of the strip is
+	 *            drawn at the top of the bounds.
+	 * @param paint
+	 *            The paint to draw the strip with.
+	 */
+	public void draw(Canvas canvas, Rect clip, Paint paint) {
+		if (mStrip == null) {
+			return;
+		}
+		canvas.save();
+		canvas.clipRect(clip);
+		int x = clip.left - mOffset;
+		canvas.drawBitmap(mStrip, x, clip.top, paint);
+		if (x + mStrip.getWidth() < clip.right) {
+			// The start of the next lap is visible.
+			canvas.drawBitmap(mStrip, x + mStrip.getWidth(), clip.top, paint);
+		}
+		canvas.restore();
+	}
+
+	/**
+	 * Release the strip. It is rendered again when a new text is set.
+	 */
+	public void release() {
+		if (mStrip != null) {
+			mStrip.recycle();
+			mStrip = null;
+		}
+	}
+
+	/**
+	 * Forget the text and release the strip.
+	 */
+	public void clear() {
+		release();
+		mText = null;
+		mOffset = 0;
+	}
+
+}
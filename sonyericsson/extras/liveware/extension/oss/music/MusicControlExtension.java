@@ -32,24 +32,26 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 package com.sonyericsson.extras.liveware.extension.oss.music;
 
 import java.util.ArrayList;
-import java.util.Random;
 
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.res.Resources;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Rect;
-import android.graphics.RectF;
 import android.media.AudioManager;
+import android.os.Handler;
 import android.text.TextPaint;
-import android.util.DisplayMetrics;
 
+import com.android.music.ArtworkKey;
 import com.sonyericsson.extras.liveware.aef.control.Control;
 import com.sonyericsson.extras.liveware.extension.oss.music.player.MediaPlayerAdapter;
 import com.sonyericsson.extras.liveware.extension.oss.music.player.PlaybackListener;
 import com.sonyericsson.extras.liveware.extension.util.Dbg;
-import com.sonyericsson.extras.liveware.extension.util.ExtensionUtils;
 import com.sonyericsson.extras.liveware.extension.util.control.ControlExtension;
 import com.sonyericsson.extras.liveware.extension.util.control.ControlTouchEvent;
 
@@ -59,8 +61,16 @@ import com.sonyericsson.extras.liveware.extension.util.control.ControlTouchEvent
  */
 public class MusicControlExtension extends ControlExtension implements PlaybackListener {
 
+	/**
+	 * The width the control is designed for. The positions below are in
+	 * pixels of this size, and are mapped to the display of the accessory by
+	 * a {@link ScreenLayout}.
+	 */
 	public static final int WIDTH = 128;
 
+	/**
+	 * The height the control is designed for.
+	 */
 	public static final int HEIGHT = 128;
 
 	private static final int STATE_IDLE = 0;
@@ -79,22 +89,220 @@ public class MusicControlExtension extends ControlExtension implements PlaybackL
 
 	private static final Rect VOLUME_RECT = new Rect(25, 11, WIDTH - 25, 11 + 6);
 
+	private static final Rect PROGRESS_RECT = new Rect(24, HEIGHT - 2, WIDTH - 24, HEIGHT);
+
 	private static final int PLAY_PAUSE_X = 39;
 
 	private static final int PLAY_PAUSE_Y = 39;
 
+	/**
+	 * Max frame rate of the scrolling title. Each frame only sends the part
+	 * of the title band that changed.
+	 */
+	private static final int MARQUEE_MAX_FPS = 8;
+
+	private static final int MARQUEE_FRAME_MS = 1000 / MARQUEE_MAX_FPS;
+
+	private static final int MARQUEE_STEP_PX = 3;
+
+	/**
+	 * Time the title is shown from its start before it scrolls.
+	 */
+	private static final int MARQUEE_START_DELAY_MS = 2000;
+
+	/**
+	 * Min time between two updates of the progress bar. Long tracks move the
+	 * bar less than a pixel per second, and are updated less often.
+	 */
+	private static final int PROGRESS_MIN_INTERVAL_MS = 1000;
+
 	private static final Bitmap.Config BITMAP_CONFIG = Bitmap.Config.ARGB_8888;
 
+	/**
+	 * Shown instead of the album art while it is being loaded.
+	 */
+	private static final int ALBUM_ART_PLACEHOLDER_COLOR = 0xff303030;
+
+	private static final int REGION_ART = 0;
+
+	private static final int REGION_ARTIST = 1;
+
+	private static final int REGION_TITLE = 2;
+
+	private static final int REGION_VOLUME = 3;
+
+	private static final int REGION_PROGRESS = 4;
+
+	/**
+	 * The buttons use the regions from this id, in the order they are
+	 * created.
+	 */
+	private static final int REGION_BUTTON = 5;
+
+	/**
+	 * Render request: the playback state has changed.
+	 */
+	private static final int RENDER_UPDATE = 1;
+
+	/**
+	 * Render request: redraw and send the full screen.
+	 */
+	private static final int RENDER_FORCE = 1 << 1;
+
+	/**
+	 * Render request: the volume has changed.
+	 */
+	private static final int RENDER_VOLUME = 1 << 2;
+
+	/**
+	 * Render request: scroll the title one step.
+	 */
+	private static final int RENDER_MARQUEE = 1 << 3;
+
+	/**
+	 * Render request: move the progress bar to the current position.
+	 */
+	private static final int RENDER_PROGRESS = 1 << 4;
+
+	/**
+	 * Render request: the press state of a button has changed. Shifted left
+	 * by the index of the button.
+	 */
+	private static final int RENDER_BUTTON = 1 << 8;
+
+	/**
+	 * Broadcast sent by the audio manager when the volume of a stream has
+	 * changed. Not part of the public API, so the volume is also read after
+	 * the volume buttons have been clicked.
+	 */
+	private static final String ACTION_VOLUME_CHANGED = "android.media.VOLUME_CHANGED_ACTION";
+
+	private static final String EXTRA_VOLUME_STREAM_TYPE = "android.media.EXTRA_VOLUME_STREAM_TYPE";
+
+	private static final String EXTRA_VOLUME_STREAM_VALUE = "android.media.EXTRA_VOLUME_STREAM_VALUE";
+
 	private int mState = STATE_IDLE;
 
 	private ArrayList<ControlButton> mButtons = new ArrayList<ControlButton>();
 
 	private MediaPlayerAdapter mMediaPlayerAdapter;
 
-	private Bitmap mBitmap;
-
 	private final AudioManager mAudioManager;
 
+	private final ResourceAtlas mResourceAtlas;
+
+	private final VolumeBar mVolumeBar;
+
+	private VolumeReceiver mVolumeReceiver = null;
+
+	private final ScreenLayout mLayout;
+
+	private final int mWidth;
+
+	private final int mHeight;
+
+	/**
+	 * The bounds the album art is shown in. Empty if the display does not
+	 * show album art.
+	 */
+	private final Rect mArtRect;
+
+	/**
+	 * The x position the artist and the title are centered on.
+	 */
+	private final int mTextX;
+
+	private final int mTitleY;
+
+	private final int mTitleWidth;
+
+	private final int mArtistY;
+
+	private final int mArtistWidth;
+
+	private final Rect mVolumeRect;
+
+	private final Rect mProgressRect;
+
+	private final int mMarqueeStepPx;
+
+	private final DirtyRegionCompositor mCompositor;
+
+	private final FrameDiffer mFrameDiffer;
+
+	private final RenderContext mRenderContext;
+
+	private final FrameEncoder mFrameEncoder;
+
+	private final TextLayoutCache mTextLayoutCache = new TextLayoutCache();
+
+	private final TextPaint mArtistPaint;
+
+	private final TextPaint mTitlePaint;
+
+	private final Rect mPartRect = new Rect();
+
+	/**
+	 * Reused for every image sent. Only used on the render thread, and the
+	 * extras are copied when the intent is broadcast.
+	 */
+	private final Intent mDisplayDataIntent = new Intent(Control.Intents.CONTROL_DISPLAY_DATA_INTENT);
+
+	private final MarqueeText mTitleMarquee;
+
+	/**
+	 * The bounds the scrolling title is shown in.
+	 */
+	private final Rect mMarqueeRect;
+
+	private final Handler mRenderHandler = RenderMailbox.getHandler();
+
+	private final Runnable mMarqueeStep = new Runnable() {
+		public void run() {
+			mMailbox.post(RENDER_MARQUEE);
+		}
+	};
+
+	private boolean mIsMarqueeRunning = false;
+
+	/**
+	 * The position in the current track, read when the playback state
+	 * changes and extrapolated in between.
+	 */
+	private final TrackProgress mProgress = new TrackProgress();
+
+	private final Runnable mProgressStep = new Runnable() {
+		public void run() {
+			mMailbox.post(RENDER_PROGRESS);
+		}
+	};
+
+	private boolean mIsProgressRunning = false;
+
+	private final Paint mProgressPaint = new Paint();
+
+	private final Paint mProgressTrackPaint = new Paint();
+
+	/**
+	 * Frames are rendered and sent on the render thread, so that touch
+	 * events are handled while a frame is being built. The lifecycle methods
+	 * and the render thread change the state used for rendering while
+	 * holding the render lock.
+	 */
+	private final Object mRenderLock = new Object();
+
+	private final RenderMailbox mMailbox = new RenderMailbox(new RenderMailbox.Renderer() {
+		public void render(int flags) {
+			onRender(flags);
+		}
+	});
+
+	/**
+	 * The latest volume received on the main thread. Shown by the render
+	 * thread.
+	 */
+	private volatile int mRequestedVolume = -1;
+
 	private PlayPauseButton mPlayPauseButton = null;
 
 	private String mCurrentArtist = null;
@@ -103,10 +311,18 @@ public class MusicControlExtension extends ControlExtension implements PlaybackL
 
 	private Bitmap mCurrentAlbumArt = null;
 
+	private ArtworkKey mCurrentAlbumArtKey = null;
+
 	private boolean mCurrentIsPlaying = false;
 
 	private int mCurrentVolume = -1;
 
+	/**
+	 * The width of the played part of the progress bar, or -1 if the bar is
+	 * not shown.
+	 */
+	private int mCurrentProgress = -1;
+
 	/**
 	 * Create music control extension.
 	 * 
@@ -114,29 +330,105 @@ public class MusicControlExtension extends ControlExtension implements PlaybackL
 	 *            The context to use.
 	 * @param packageName
 	 *            The package name of the host application.
+	 * @param resourceAtlas
+	 *            The atlas holding the drawables. The drawables are scaled to
+	 *            the display of the accessory.
 	 */
-	public MusicControlExtension(final Context context, final String packageName) {
+	public MusicControlExtension(final Context context, final String packageName, final ResourceAtlas resourceAtlas) {
 		super(context, packageName);
 
+		if (resourceAtlas == null) {
+			throw new IllegalArgumentException("resourceAtlas == null");
+		}
+
+		// All positions and drawables are scaled to the display once, frames
+		// are rendered at the size of the display.
+		mLayout = ScreenLayout.getControlLayout(mContext, packageName, WIDTH, HEIGHT);
+		mWidth = mLayout.getWidth();
+		mHeight = mLayout.getHeight();
+		mResourceAtlas = resourceAtlas.getScaled(mLayout.getDensity());
+
+		Resources resources = mContext.getResources();
+		int artistTextSize = mLayout.scaleText(resources.getDimensionPixelSize(R.dimen.smart_watch_text_size_normal));
+		int titleTextSize = mLayout.scaleText(resources.getDimensionPixelSize(R.dimen.smart_watch_text_size_small));
+		mArtistPaint = new TextPaint();
+		mArtistPaint.setAntiAlias(true);
+		mArtistPaint.setTextAlign(Paint.Align.CENTER);
+		mArtistPaint.setTextSize(artistTextSize);
+		mArtistPaint.setColor(resources.getColor(R.color.smart_watch_text_color_white));
+
+		mTitlePaint = new TextPaint(mArtistPaint);
+		mTitlePaint.setTextSize(titleTextSize);
+
+		mArtRect = getArtRect(mLayout);
+		if (mLayout.isCompact()) {
+			// A single row: the album art at the left, if the display is high
+			// enough, the artist above the title beside it and the play pause
+			// button at the right. The volume is not shown, and the previous
+			// and next tracks are reached by swiping.
+			int textLeft = mArtRect.right + mLayout.scale(2);
+			int textRight = mWidth - mResourceAtlas.getBitmap(R.drawable.music_play_icn).getWidth() - mLayout.scale(2);
+			mTextX = (textLeft + textRight) / 2;
+			mTitleWidth = textRight - textLeft;
+			mArtistWidth = mTitleWidth;
+			mArtistY = mHeight / 2 - mArtistPaint.getFontMetricsInt().descent;
+			mTitleY = mHeight / 2 - mTitlePaint.getFontMetricsInt().ascent;
+			mVolumeRect = new Rect();
+			mProgressRect = new Rect(textLeft, mHeight - Math.max(1, mLayout.scale(2)), textRight, mHeight);
+		} else {
+			mTextX = mWidth / 2;
+			mTitleY = mHeight - mLayout.scale(HEIGHT - TITLE_Y_POS);
+			mTitleWidth = mWidth - mLayout.scale(WIDTH - TITLE_WIDTH);
+			mArtistY = mTitleY - mLayout.scale(TITLE_Y_POS - ARTIST_Y_POS);
+			mArtistWidth = mWidth - mLayout.scale(WIDTH - ARTIST_WIDTH);
+			mVolumeRect = mLayout.anchor(VOLUME_RECT);
+			mProgressRect = mLayout.anchor(PROGRESS_RECT);
+		}
+		mMarqueeStepPx = Math.max(1, mLayout.scale(MARQUEE_STEP_PX));
+		mCompositor = new DirtyRegionCompositor(mWidth, mHeight);
+		mFrameDiffer = new FrameDiffer(mWidth, mHeight);
+		mRenderContext = new RenderContext(mWidth, mHeight, BITMAP_CONFIG);
+
 		mAudioManager = (AudioManager) mContext.getSystemService(Context.AUDIO_SERVICE);
+		mFrameEncoder = new FrameEncoder(mContext, packageName, mWidth, mHeight, false);
+		mVolumeBar = new VolumeBar(mResourceAtlas, mVolumeRect.width(), mVolumeRect.height(), mAudioManager.getStreamMaxVolume(AudioManager.STREAM_MUSIC));
+
+		mCompositor.setRegion(REGION_ART, new Rect(0, 0, mWidth, mHeight));
+		mCompositor.setRegion(REGION_ARTIST, getTextBand(mArtistY, artistTextSize));
+		mCompositor.setRegion(REGION_TITLE, getTextBand(mTitleY, titleTextSize));
+		mCompositor.setRegion(REGION_VOLUME, mVolumeRect);
+		mCompositor.setRegion(REGION_PROGRESS, mProgressRect);
+
+		mProgressPaint.setColor(resources.getColor(R.color.smart_watch_text_color_white));
+		mProgressTrackPaint.setColor(mProgressPaint.getColor());
+		mProgressTrackPaint.setAlpha(0x50);
+
+		Rect titleBand = mCompositor.getRegion(REGION_TITLE);
+		mMarqueeRect = new Rect(mTextX - mTitleWidth / 2, titleBand.top, mTextX + mTitleWidth / 2, titleBand.bottom);
+		mTitleMarquee = new MarqueeText(mTitlePaint, titleBand.height(), mTitleY - titleBand.top);
 	}
 
 	@Override
 	public void onStart() {
 		Dbg.d("onStart");
 
-		mState = STATE_PAUSED;
+		synchronized (mRenderLock) {
+			mState = STATE_PAUSED;
 
-		mMediaPlayerAdapter = new MediaPlayerAdapter(mContext);
+			mMediaPlayerAdapter = new MediaPlayerAdapter(mContext);
 
-		mCurrentArtist = null;
-		mCurrentTitle = null;
-		mCurrentAlbumArt = null;
-		mCurrentIsPlaying = false;
-		mCurrentVolume = -1;
+			mCurrentArtist = null;
+			mCurrentTitle = null;
+			mCurrentAlbumArt = null;
+			mCurrentAlbumArtKey = null;
+			mCurrentIsPlaying = false;
+			mCurrentVolume = -1;
+			mCurrentProgress = -1;
+			mProgress.clear();
 
-		// Show info about current track on screen
-		createButtons();
+			// Show info about current track on screen
+			createButtons();
+		}
 
 		// Start listening for play back updates
 		mMediaPlayerAdapter.startAndBindToMediaService();
@@ -146,15 +438,19 @@ public class MusicControlExtension extends ControlExtension implements PlaybackL
 	public void onStop() {
 		Dbg.d("onStop");
 
-		mState = STATE_IDLE;
+		mMailbox.clear();
+		synchronized (mRenderLock) {
+			mState = STATE_IDLE;
 
-		// Clear current bitmap.
-		mBitmap = null;
+			// Clear current frames.
+			mRenderContext.release();
+			mTitleMarquee.clear();
 
-		if (mMediaPlayerAdapter != null) {
-			// Player updates no longer needed.
-			mMediaPlayerAdapter.onDestroy();
-			mMediaPlayerAdapter = null;
+			if (mMediaPlayerAdapter != null) {
+				// Player updates no longer needed.
+				mMediaPlayerAdapter.onDestroy();
+				mMediaPlayerAdapter = null;
+			}
 		}
 	}
 
@@ -162,37 +458,79 @@ public class MusicControlExtension extends ControlExtension implements PlaybackL
 	public void onPause() {
 		Dbg.d("onPause");
 
-		mState = STATE_PAUSED;
+		synchronized (mRenderLock) {
+			mState = STATE_PAUSED;
+
+			// The accessory display is off or shows something else.
+			updateMarquee(false);
+			updateProgressTimer();
+		}
 
 		// Player updates no longer needed.
 		mMediaPlayerAdapter.unregisterListener(this);
+
+		// Volume updates no longer needed.
+		if (mVolumeReceiver != null) {
+			mContext.unregisterReceiver(mVolumeReceiver);
+			mVolumeReceiver = null;
+		}
 	}
 
 	@Override
 	public void onResume() {
 		Dbg.d("onResume");
 
-		mState = STATE_STARTED;
-		mCurrentArtist = null;
-		mCurrentTitle = null;
-		mCurrentAlbumArt = null;
-		mCurrentIsPlaying = false;
-		mCurrentVolume = -1;
+		synchronized (mRenderLock) {
+			mState = STATE_STARTED;
+			mCurrentArtist = null;
+			mCurrentTitle = null;
+			mCurrentAlbumArt = null;
+			mCurrentAlbumArtKey = null;
+			mCurrentIsPlaying = false;
+			mCurrentVolume = mAudioManager.getStreamVolume(AudioManager.STREAM_MUSIC);
+			mRequestedVolume = mCurrentVolume;
+			mCurrentProgress = -1;
+			mProgress.clear();
+
+			// The accessory may have shown something else while paused.
+			mFrameDiffer.reset();
+		}
 
 		// Re-register for player updates.
 		mMediaPlayerAdapter.registerListener(this);
 
+		// Listen for volume changes, also those made on the phone.
+		if (mVolumeReceiver == null) {
+			mVolumeReceiver = new VolumeReceiver();
+			mContext.registerReceiver(mVolumeReceiver, new IntentFilter(ACTION_VOLUME_CHANGED));
+		}
+
 		// Update the display with the latest info.
-		updateDisplay(true);
+		mMailbox.post(RENDER_FORCE);
 	}
 
 	@Override
 	public void onDestroy() {
-		if (mMediaPlayerAdapter != null) {
-			// Player updates no longer needed.
-			mMediaPlayerAdapter.unregisterListener(this);
-			mMediaPlayerAdapter.onDestroy();
-			mMediaPlayerAdapter = null;
+		mMailbox.clear();
+		if (mVolumeReceiver != null) {
+			mContext.unregisterReceiver(mVolumeReceiver);
+			mVolumeReceiver = null;
+		}
+		synchronized (mRenderLock) {
+			mState = STATE_IDLE;
+			mRenderHandler.removeCallbacks(mMarqueeStep);
+			mIsMarqueeRunning = false;
+			mRenderHandler.removeCallbacks(mProgressStep);
+			mIsProgressRunning = false;
+			mTitleMarquee.clear();
+			mTextLayoutCache.clear();
+			if (mMediaPlayerAdapter != null) {
+				// Player updates no longer needed.
+				mMediaPlayerAdapter.unregisterListener(this);
+				mMediaPlayerAdapter.onDestroy();
+				mMediaPlayerAdapter = null;
+			}
+			mFrameEncoder.release();
 		}
 	}
 
@@ -203,11 +541,13 @@ public class MusicControlExtension extends ControlExtension implements PlaybackL
 		if (event != null) {
 			Dbg.v("action: " + event.getAction() + " x: " + event.getX() + " y: " + event.getY() + " time: " + event.getTimeStamp());
 		}
-		if (mBitmap == null) {
+		if (mState == STATE_IDLE) {
 			// If Music Extension has stopped
 			return;
 		}
-		// Check touch on any buttons
+		// Check touch on any buttons. The buttons are only created on the
+		// main thread, so they are not locked.
+		int flags = 0;
 		for (int i = 0; i < mButtons.size(); i++) {
 			ControlButton button = mButtons.get(i);
 			boolean oldIsPressed = button.isPressed();
@@ -215,9 +555,12 @@ public class MusicControlExtension extends ControlExtension implements PlaybackL
 
 			// Press status changed. Update display.
 			if (button.isPressed() != oldIsPressed) {
-				updateBitmapAndButton(button);
+				flags |= RENDER_BUTTON << i;
 			}
 		}
+		if (flags != 0) {
+			mMailbox.post(flags);
+		}
 	}
 
 	@Override
@@ -232,60 +575,129 @@ public class MusicControlExtension extends ControlExtension implements PlaybackL
 	}
 
 	/**
-	 * Update the button part of a bitmap. Used to avoid sending large images to
-	 * accessory.
+	 * Render the requests posted to the mailbox. Called on the render thread.
 	 * 
-	 * @param button
-	 *            The button to update.
+	 * @param flags
+	 *            The requests.
 	 */
-	private void updateBitmapAndButton(ControlButton button) {
-		Dbg.d("updateBitmapAndButton.");
-
-		// Get the current background.
-		Bitmap bitmap = mBitmap.copy(BITMAP_CONFIG, true);
-		Canvas canvas = new Canvas(bitmap);
-		Paint paint = new Paint();
-
-		// Draw the button
-		canvas.drawBitmap(button.getBitmap(), button.getX(), button.getY(), paint);
-
-		// Update the volume
-		boolean volumeChange = showCurrentVolume(canvas);
+	private void onRender(int flags) {
+		synchronized (mRenderLock) {
+			if (mState != STATE_STARTED || mMediaPlayerAdapter == null) {
+				// Paused or stopped since the request was posted.
+				return;
+			}
 
-		// Create snapshot of part of the bitmap to send.
-		Bitmap outBitmap = Bitmap.createBitmap(bitmap, button.getX(), button.getY(), button.getWidth(), button.getHeight());
-		showBitmap(outBitmap, button.getX(), button.getY());
+			for (int i = 0; i < mButtons.size(); i++) {
+				if ((flags & (RENDER_BUTTON << i)) != 0) {
+					mCompositor.invalidate(REGION_BUTTON + i);
+				}
+			}
+			if ((flags & RENDER_VOLUME) != 0 && mRequestedVolume != mCurrentVolume) {
+				// Only the volume bar is sent to the accessory.
+				mCurrentVolume = mRequestedVolume;
+				mCompositor.invalidate(REGION_VOLUME);
+			}
+			if ((flags & RENDER_MARQUEE) != 0 && mIsMarqueeRunning) {
+				boolean isAtStart = mTitleMarquee.scroll(mMarqueeStepPx);
+				mCompositor.invalidate(mMarqueeRect);
+				mRenderHandler.postDelayed(mMarqueeStep, isAtStart ? MARQUEE_START_DELAY_MS : MARQUEE_FRAME_MS);
+			}
+			if ((flags & RENDER_PROGRESS) != 0 && mIsProgressRunning) {
+				// Only the progress bar is sent, and only if it has moved.
+				updateProgress();
+				mRenderHandler.postDelayed(mProgressStep, getProgressInterval());
+			}
 
-		// If volume has been changed we must update the volume bar as well.
-		if (volumeChange) {
-			outBitmap = Bitmap.createBitmap(bitmap, VOLUME_RECT.left, VOLUME_RECT.top, VOLUME_RECT.width(), VOLUME_RECT.height());
-			showBitmap(outBitmap, VOLUME_RECT.left, VOLUME_RECT.top);
+			if ((flags & (RENDER_UPDATE | RENDER_FORCE)) != 0) {
+				updateDisplay((flags & RENDER_FORCE) != 0);
+			} else {
+				sendDirtyRegions();
+			}
 		}
-
 	}
 
 	/**
-	 * Send a complete update of the screen to the accessory.
+	 * Send the changed regions of the screen to the accessory. Used to avoid
+	 * sending large images to accessory. The buttons and the volume bar are
+	 * drawn on top of the background in each region sent, and so is the
+	 * progress bar.
 	 */
-	private void showBitmapAndButtons() {
-		Dbg.d("showBitmapAndButtons");
-
-		// Create a copy of the bitmap so that we don't keep the original
-		Bitmap bitmap = mBitmap.copy(BITMAP_CONFIG, true);
-		Canvas canvas = new Canvas(bitmap);
-		Paint paint = new Paint();
-
-		// Add all buttons.
-		for (int i = 0; i < mButtons.size(); i++) {
-			ControlButton button = mButtons.get(i);
-			canvas.drawBitmap(button.getBitmap(), button.getX(), button.getY(), paint);
+	private void sendDirtyRegions() {
+		int count = mCompositor.flush();
+		Bitmap frame = mRenderContext.getFrame();
+		if (frame == null) {
+			return;
 		}
 
-		// Update the volume
-		showCurrentVolume(canvas);
+		Paint paint = mRenderContext.getPaint();
+		for (int r = 0; r < count; r++) {
+			Rect rect = mCompositor.getRect(r);
 
-		showBitmap(bitmap);
+			// Get the current background of the region.
+			Bitmap bitmap = BitmapPool.acquireRegion(frame, rect.left, rect.top, rect.width(), rect.height());
+			Canvas canvas = mRenderContext.getCanvas(bitmap);
+			canvas.save();
+			canvas.translate(-rect.left, -rect.top);
 
+			// Add the scrolling title, the buttons and the volume covered by
+			// the region.
+			if (mTitleMarquee.isScrolling() && Rect.intersects(rect, mMarqueeRect)) {
+				mTitleMarquee.draw(canvas, mMarqueeRect, paint);
+			}
+			for (int i = 0; i < mButtons.size(); i++) {
+				ControlButton button = mButtons.get(i);
+				if (Rect.intersects(rect, button.getRect())) {
+					canvas.drawBitmap(button.getBitmap(), button.getX(), button.getY(), paint);
+				}
+			}
+			if (Rect.intersects(rect, mVolumeRect)) {
+				canvas.drawBitmap(mVolumeBar.getStrip(mCurrentVolume), mVolumeRect.left, mVolumeRect.top, paint);
+			}
+			if (mCurrentProgress >= 0 && Rect.intersects(rect, mProgressRect)) {
+				canvas.drawRect(mProgressRect, mProgressTrackPaint);
+				canvas.drawRect(mProgressRect.left, mProgressRect.top, mProgressRect.left + mCurrentProgress, mProgressRect.bottom, mProgressPaint);
+			}
+			canvas.restore();
+
+			// Only send the parts that differ from what the accessory shows.
+			int parts = mFrameDiffer.diff(bitmap, rect.left, rect.top);
+			for (int p = 0; p < parts; p++) {
+				Rect part = mPartRect;
+				part.set(mFrameDiffer.getRect(p));
+				if (!part.intersect(rect)) {
+					continue;
+				}
+				if (mCompositor.isFullScreen(part)) {
+					sendBitmap(bitmap, 0, 0);
+				} else if (part.equals(rect)) {
+					sendBitmap(bitmap, rect.left, rect.top);
+				} else {
+					Bitmap partBitmap = BitmapPool.acquireRegion(bitmap, part.left - rect.left, part.top - rect.top, part.width(), part.height());
+					sendBitmap(partBitmap, part.left, part.top);
+					BitmapPool.release(partBitmap);
+				}
+			}
+			BitmapPool.release(bitmap);
+		}
+	}
+
+	/**
+	 * Send an image to the accessory, encoded for the color depth of its
+	 * display.
+	 * 
+	 * @param bitmap
+	 *            The image.
+	 * @param x
+	 *            The x position of the image on the screen.
+	 * @param y
+	 *            The y position of the image on the screen.
+	 */
+	private void sendBitmap(Bitmap bitmap, int x, int y) {
+		Intent intent = mDisplayDataIntent;
+		intent.putExtra(Control.Intents.EXTRA_X_OFFSET, x);
+		intent.putExtra(Control.Intents.EXTRA_Y_OFFSET, y);
+		intent.putExtra(Control.Intents.EXTRA_DATA, mFrameEncoder.encode(bitmap, x, y));
+		sendToHostApp(intent);
 	}
 
 	/*
@@ -296,7 +708,7 @@ public class MusicControlExtension extends ControlExtension implements PlaybackL
 	 * #onUpdate()
 	 */
 	public void onUpdate() {
-		Dbg.d("onUpdate: Playing:" + mMediaPlayerAdapter.isPlaying() + " " + mMediaPlayerAdapter.getArtist() + ": " + mMediaPlayerAdapter.getTitle());
+		Dbg.d("onUpdate");
 
 		// Only update the screen if the control is started.
 		if (mState != STATE_STARTED) {
@@ -304,12 +716,32 @@ public class MusicControlExtension extends ControlExtension implements PlaybackL
 			return;
 		}
 
-		updateDisplay(false);
+		mMailbox.post(RENDER_UPDATE);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.sonyericsson.extras.liveware.extension.oss.music.player.PlaybackListener
+	 * #onAlbumArtUpdate()
+	 */
+	public void onAlbumArtUpdate() {
+		Dbg.d("onAlbumArtUpdate");
+
+		// Only update the screen if the control is started.
+		if (mState != STATE_STARTED) {
+			return;
+		}
+
+		// The album art is the background of the whole screen so the complete
+		// screen is updated.
+		mMailbox.post(RENDER_UPDATE);
 	}
 
 	/**
 	 * Update the accessory display with info about the track currently being
-	 * played and add all buttons on top of it.
+	 * played and add all buttons on top of it. Called on the render thread.
 	 * 
 	 * @param forceUpdate
 	 *            True if update regardless if playback info is changed.
@@ -317,157 +749,268 @@ public class MusicControlExtension extends ControlExtension implements PlaybackL
 	private void updateDisplay(boolean forceUpdate) {
 		String artist = mMediaPlayerAdapter.getArtist();
 		String title = mMediaPlayerAdapter.getTitle();
-		Bitmap albumArt = mMediaPlayerAdapter.getAlbumArt();
+		ArtworkKey albumArtKey = mMediaPlayerAdapter.getAlbumArtKey();
+		Bitmap albumArt = mCurrentAlbumArt;
+		if (!mArtRect.isEmpty() && (forceUpdate || albumArt == null || !albumArtKey.equals(mCurrentAlbumArtKey))) {
+			// Album art changed or not loaded yet. Other updates reuse the album
+			// art already shown.
+			albumArt = mMediaPlayerAdapter.peekAlbumArt(mArtRect.width(), mArtRect.height());
+		}
 		boolean isPlaying = mMediaPlayerAdapter.isPlaying();
+		if (MusicExtension.DEBUG_UPDATES) {
+			Dbg.d("updateDisplay: Playing:" + isPlaying + " " + artist + ": " + title);
+		}
 
 		mPlayPauseButton.update(isPlaying);
 
-		if (!forceUpdate && Utils.equalsNullSafe(artist, mCurrentArtist) && Utils.equalsNullSafe(title, mCurrentTitle) && Utils.equalsNullSafe(albumArt, mCurrentAlbumArt)) {
-			Dbg.d("Control: Track info already up to date");
-
-			if (isPlaying == mCurrentIsPlaying) {
-				Dbg.d("Control: Playstate also up to date. Nothing to do.");
-			} else {
-				updateBitmapAndButton(mPlayPauseButton);
-				mCurrentIsPlaying = isPlaying;
-			}
+		// The position is only read when the playback state changes. It is
+		// extrapolated until the next change.
+		mProgress.sync(mMediaPlayerAdapter.getPosition(), mMediaPlayerAdapter.getDuration(), isPlaying);
+		updateProgress();
+
+		// Only send the regions of the screen that have changed.
+		boolean isAlbumArtChanged = forceUpdate || mRenderContext.getFrame() == null || !albumArtKey.equals(mCurrentAlbumArtKey) || albumArt != mCurrentAlbumArt;
+		boolean isArtistChanged = !Utils.equalsNullSafe(artist, mCurrentArtist);
+		boolean isTitleChanged = !Utils.equalsNullSafe(title, mCurrentTitle);
+		if (isAlbumArtChanged) {
+			mCompositor.invalidate(REGION_ART);
+		}
+		if (isArtistChanged) {
+			mCompositor.invalidate(REGION_ARTIST);
+		}
+		if (isTitleChanged) {
+			mCompositor.invalidate(REGION_TITLE);
+		}
+		if (isPlaying != mCurrentIsPlaying) {
+			mCompositor.invalidate(REGION_BUTTON + mButtons.indexOf(mPlayPauseButton));
+		}
+		if (!mCompositor.isDirty()) {
+			Dbg.d("Control: Track info and playstate already up to date. Nothing to do.");
+			updateProgressTimer();
 			return;
 		}
 
 		mCurrentArtist = artist;
 		mCurrentTitle = title;
 		mCurrentAlbumArt = albumArt;
+		mCurrentAlbumArtKey = albumArtKey;
 		mCurrentIsPlaying = isPlaying;
 
-		// Create bitmap to draw in.
-		mBitmap = Bitmap.createBitmap(WIDTH, HEIGHT, BITMAP_CONFIG);
+		if (isAlbumArtChanged || !mRenderContext.hasBaseLayer()) {
+			drawBaseLayer(albumArt);
+		}
+		if (isAlbumArtChanged || isArtistChanged || isTitleChanged) {
+			drawBackground(artist, title);
+		}
 
-		// Set the density to default to avoid scaling.
-		mBitmap.setDensity(DisplayMetrics.DENSITY_DEFAULT);
-		Canvas canvas = new Canvas(mBitmap);
-		Paint paint = new Paint();
+		sendDirtyRegions();
+		updateMarquee(isTitleChanged);
+		updateProgressTimer();
+	}
 
-		int albumImgIndex = 1;
-		int ramdomIndex = CommonUtil.showRandomInteger(1, 6, new Random());
-		switch (ramdomIndex) {
-		case 1:
-			albumImgIndex = R.drawable.default_music_album_1;
-			break;
-		case 2:
-			albumImgIndex = R.drawable.default_music_album_2;
-			break;
-		case 3:
-			albumImgIndex = R.drawable.default_music_album_3;
-			break;
-		case 4:
-			albumImgIndex = R.drawable.default_music_album_4;
-			break;
-		case 5:
-			albumImgIndex = R.drawable.default_music_album_5;
-			break;
-		case 6:
-			albumImgIndex = R.drawable.default_music_album_6;
-			break;
-		}
-
-		// Add album art.
-		if (albumArt == null) {
-			albumArt = BitmapFactory.decodeResource(mContext.getResources(), albumImgIndex, mBitmapOptions);
-		}
-		Rect source = new Rect(0, 0, albumArt.getWidth(), albumArt.getHeight());
-		Rect dest = new Rect(0, 0, mBitmap.getWidth(), mBitmap.getHeight());
-		canvas.drawBitmap(albumArt, source, dest, paint);
-
-		Bitmap volumeBackground = BitmapFactory.decodeResource(mContext.getResources(), R.drawable.player_text_top_bg, mBitmapOptions);
+	/**
+	 * Start scrolling the title if it does not fit and the track is playing
+	 * on a visible screen, otherwise stop it.
+	 * 
+	 * @param restart
+	 *            True if the title has changed and is shown from its start.
+	 */
+	private void updateMarquee(boolean restart) {
+		boolean run = mState == STATE_STARTED && mCurrentIsPlaying && mTitleMarquee.isScrolling();
+		if (run && (restart || !mIsMarqueeRunning)) {
+			mRenderHandler.removeCallbacks(mMarqueeStep);
+			mRenderHandler.postDelayed(mMarqueeStep, MARQUEE_START_DELAY_MS);
+		} else if (!run) {
+			mRenderHandler.removeCallbacks(mMarqueeStep);
+		}
+		mIsMarqueeRunning = run;
+	}
+
+	/**
+	 * Move the progress bar to the current position. The bar is only sent if
+	 * it has moved at least a pixel.
+	 */
+	private void updateProgress() {
+		int progress = mProgress.getProgress(mProgressRect.width());
+		if (progress != mCurrentProgress) {
+			mCurrentProgress = progress;
+			mCompositor.invalidate(REGION_PROGRESS);
+		}
+	}
+
+	/**
+	 * Start moving the progress bar if the track is playing on a visible
+	 * screen, otherwise stop it.
+	 */
+	private void updateProgressTimer() {
+		boolean run = mState == STATE_STARTED && mProgress.isMoving();
+		if (run && !mIsProgressRunning) {
+			mRenderHandler.postDelayed(mProgressStep, getProgressInterval());
+		} else if (!run) {
+			mRenderHandler.removeCallbacks(mProgressStep);
+		}
+		mIsProgressRunning = run;
+	}
+
+	/**
+	 * Get the time it takes the progress bar to move a pixel, but not less
+	 * than the min interval.
+	 *
+	 * @return The time in milliseconds.
+	 */
+	private long getProgressInterval() {
+		return Math.max(PROGRESS_MIN_INTERVAL_MS, mProgress.getDuration() / Math.max(mProgressRect.width(), 1));
+	}
+
+	/**
+	 * Draw the base layer of the screen, that is the album art and the
+	 * overlays on top of it. Only drawn again when the album art changes. A
+	 * compact screen has no overlays.
+	 */
+	private void drawBaseLayer(Bitmap albumArt) {
+		Canvas canvas = mRenderContext.beginBaseLayer();
+		Paint paint = mRenderContext.getPaint();
+		if (mLayout.isCompact()) {
+			canvas.drawColor(Color.BLACK);
+		}
+
+		// Add album art, cropped to the aspect ratio of its bounds. While the
+		// album art is being loaded a placeholder is shown, the album art is
+		// drawn when it has been loaded.
+		if (albumArt != null) {
+			Rect source = mRenderContext.getSourceRect();
+			Rect dest = mRenderContext.getDestRect();
+			dest.set(mArtRect);
+			ScreenLayout.centerCrop(albumArt.getWidth(), albumArt.getHeight(), dest, source);
+			canvas.drawBitmap(albumArt, source, dest, paint);
+		} else if (!mArtRect.isEmpty()) {
+			canvas.save();
+			canvas.clipRect(mArtRect);
+			canvas.drawColor(ALBUM_ART_PLACEHOLDER_COLOR);
+			canvas.restore();
+		}
+		if (mLayout.isCompact()) {
+			return;
+		}
+
+		Bitmap volumeBackground = mResourceAtlas.getBitmap(R.drawable.player_text_top_bg);
 		canvas.drawBitmap(volumeBackground, 0, 0, paint);
 
 		// Add background for text.
-		Bitmap textBackground = BitmapFactory.decodeResource(mContext.getResources(), R.drawable.player_text_bottom_bg, mBitmapOptions);
-		canvas.drawBitmap(textBackground, 0, HEIGHT - textBackground.getHeight(), paint);
+		Bitmap textBackground = mResourceAtlas.getBitmap(R.drawable.player_text_bottom_bg);
+		canvas.drawBitmap(textBackground, 0, mHeight - textBackground.getHeight(), paint);
+	}
 
-		TextPaint textPaint = new TextPaint(paint);
-		textPaint.setAntiAlias(true);
-		textPaint.setTextAlign(Paint.Align.CENTER);
+	/**
+	 * Draw the background of the screen, that is everything except the
+	 * buttons and the volume bar, on top of the base layer. The buttons and
+	 * the volume bar are added to each region when it is sent.
+	 */
+	private void drawBackground(String artist, String title) {
+		Canvas canvas = mRenderContext.beginFrame();
 
 		// Add artist
 		if (artist != null) {
-			TextPaint artistPaint = new TextPaint(textPaint);
-			artistPaint.setTextSize(mContext.getResources().getDimensionPixelSize(R.dimen.smart_watch_text_size_normal));
-			artistPaint.setColor(mContext.getResources().getColor(R.color.smart_watch_text_color_white));
-			int textX = WIDTH / 2;
-			ExtensionUtils.drawText(canvas, artist, textX, ARTIST_Y_POS, artistPaint, ARTIST_WIDTH);
+			mTextLayoutCache.drawText(canvas, artist, mTextX, mArtistY, mArtistPaint, mArtistWidth);
 		}
 
-		// Add title
-		if (title != null) {
-			TextPaint titlePaint = new TextPaint(textPaint);
-			titlePaint.setTextSize(mContext.getResources().getDimensionPixelSize(R.dimen.smart_watch_text_size_small));
-			titlePaint.setColor(mContext.getResources().getColor(R.color.smart_watch_text_color_white));
-			int textX = WIDTH / 2;
-			ExtensionUtils.drawText(canvas, title, textX, TITLE_Y_POS, titlePaint, TITLE_WIDTH);
+		// Add title. A title that does not fit is scrolled on top of the
+		// frame instead.
+		boolean isTitleScrolling = mTitleMarquee.setText(title, mTitleWidth);
+		if (title != null && !isTitleScrolling) {
+			mTextLayoutCache.drawText(canvas, title, mTextX, mTitleY, mTitlePaint, mTitleWidth);
 		}
 
-		// Add buttons
-		showBitmapAndButtons();
+		mRenderContext.endFrame();
 	}
 
 	/**
-	 * Show the current volume.
+	 * Get the bounds the album art is shown in.
+	 * 
+	 * @param layout
+	 *            The layout of the control.
+	 * @return The full screen, or the album art square of a compact screen.
 	 */
-	private boolean showCurrentVolume(final Canvas canvas) {
-		int maxVolume = mAudioManager.getStreamMaxVolume(AudioManager.STREAM_MUSIC);
-		int volume = mAudioManager.getStreamVolume(AudioManager.STREAM_MUSIC);
-
-		Dbg.d("showCurrentVolume max:" + maxVolume + " volume:" + volume);
-
-		int volumeOnLength = (int) (VOLUME_RECT.width() * volume / maxVolume);
+	static Rect getArtRect(ScreenLayout layout) {
+		if (layout.isCompact()) {
+			return layout.getCompactArtRect();
+		}
+		return new Rect(0, 0, layout.getWidth(), layout.getHeight());
+	}
 
-		Bitmap volumeOnBitmap = BitmapFactory.decodeResource(mContext.getResources(), R.drawable.music_volume_on_icn, mBitmapOptions);
-		Bitmap volumeOffBitmap = BitmapFactory.decodeResource(mContext.getResources(), R.drawable.music_volume_off_icn, mBitmapOptions);
-		RectF volumeOnRect = new RectF(VOLUME_RECT.left, VOLUME_RECT.top, VOLUME_RECT.left + volumeOnLength, VOLUME_RECT.bottom);
-		canvas.drawBitmap(volumeOnBitmap, null, volumeOnRect, null);
+	/**
+	 * Get the band of the screen that text drawn at a baseline can cover.
+	 * 
+	 * @param baseline
+	 *            The y position of the baseline.
+	 * @param textSize
+	 *            The text size.
+	 * @return The band.
+	 */
+	private Rect getTextBand(int baseline, int textSize) {
+		Paint paint = new Paint();
+		paint.setTextSize(textSize);
+		Paint.FontMetricsInt metrics = paint.getFontMetricsInt();
+		return new Rect(0, baseline + metrics.top, mWidth, baseline + metrics.bottom);
+	}
 
-		RectF volumeOffRect = new RectF(volumeOnRect.right, VOLUME_RECT.top, VOLUME_RECT.right, VOLUME_RECT.bottom);
-		canvas.drawBitmap(volumeOffBitmap, null, volumeOffRect, null);
+	/**
+	 * Show a new volume. Only the volume bar is sent to the accessory.
+	 * 
+	 * @param volume
+	 *            The new volume.
+	 */
+	private void updateVolume(int volume) {
+		if (volume == mRequestedVolume) {
+			return;
+		}
+		mRequestedVolume = volume;
 
-		boolean volumeChange = (volume != mCurrentVolume);
-		mCurrentVolume = volume;
+		if (mState != STATE_STARTED) {
+			return;
+		}
 
-		return volumeChange;
+		mMailbox.post(RENDER_VOLUME);
 	}
 
 	/**
-	 * Create all buttons.
+	 * Create all buttons. A compact screen only has the play pause button.
 	 */
 	private void createButtons() {
 		mButtons.clear();
+		if (mLayout.isCompact()) {
+			createPlayPauseButton();
+			return;
+		}
 
 		// Volume down
-		Bitmap volumeDownBitmap = BitmapFactory.decodeResource(mContext.getResources(), R.drawable.music_volme_minus_icn, mBitmapOptions);
-		Bitmap volumeDownPressedBitmap = BitmapFactory.decodeResource(mContext.getResources(), R.drawable.music_volme_minus_pressed_icn, mBitmapOptions);
+		Bitmap volumeDownBitmap = mResourceAtlas.getBitmap(R.drawable.music_volme_minus_icn);
+		Bitmap volumeDownPressedBitmap = mResourceAtlas.getBitmap(R.drawable.music_volme_minus_pressed_icn);
 		ControlButton volumeDownButton = new ControlButton(0, 0, volumeDownBitmap, volumeDownPressedBitmap) {
 			@Override
 			public void onClick() {
 				mAudioManager.adjustStreamVolume(AudioManager.STREAM_MUSIC, AudioManager.ADJUST_LOWER, 0);
+				updateVolume(mAudioManager.getStreamVolume(AudioManager.STREAM_MUSIC));
 			}
 		};
 		mButtons.add(volumeDownButton);
 
 		// Volume up
-		Bitmap volumeUpBitmap = BitmapFactory.decodeResource(mContext.getResources(), R.drawable.music_volme_plus_icn, mBitmapOptions);
-		Bitmap volumeUpPressedBitmap = BitmapFactory.decodeResource(mContext.getResources(), R.drawable.music_volme_plus_pressed_icn, mBitmapOptions);
-		ControlButton volumeUpButton = new ControlButton(WIDTH - volumeUpBitmap.getWidth(), 0, volumeUpBitmap, volumeUpPressedBitmap) {
+		Bitmap volumeUpBitmap = mResourceAtlas.getBitmap(R.drawable.music_volme_plus_icn);
+		Bitmap volumeUpPressedBitmap = mResourceAtlas.getBitmap(R.drawable.music_volme_plus_pressed_icn);
+		ControlButton volumeUpButton = new ControlButton(mWidth - volumeUpBitmap.getWidth(), 0, volumeUpBitmap, volumeUpPressedBitmap) {
 			@Override
 			public void onClick() {
 				mAudioManager.adjustStreamVolume(AudioManager.STREAM_MUSIC, AudioManager.ADJUST_RAISE, 0);
+				updateVolume(mAudioManager.getStreamVolume(AudioManager.STREAM_MUSIC));
 			}
 		};
 		mButtons.add(volumeUpButton);
 
 		// Previous
-		Bitmap previousBitmap = BitmapFactory.decodeResource(mContext.getResources(), R.drawable.music_previous_icn, mBitmapOptions);
-		Bitmap previousPressedBitmap = BitmapFactory.decodeResource(mContext.getResources(), R.drawable.music_previous_pressed_icn, mBitmapOptions);
-		ControlButton previousButton = new ControlButton(0, HEIGHT - previousBitmap.getHeight(), previousBitmap, previousPressedBitmap) {
+		Bitmap previousBitmap = mResourceAtlas.getBitmap(R.drawable.music_previous_icn);
+		Bitmap previousPressedBitmap = mResourceAtlas.getBitmap(R.drawable.music_previous_pressed_icn);
+		ControlButton previousButton = new ControlButton(0, mHeight - previousBitmap.getHeight(), previousBitmap, previousPressedBitmap) {
 			@Override
 			public void onClick() {
 				mMediaPlayerAdapter.prev();
@@ -476,9 +1019,9 @@ public class MusicControlExtension extends ControlExtension implements PlaybackL
 		mButtons.add(previousButton);
 
 		// Next
-		Bitmap nextBitmap = BitmapFactory.decodeResource(mContext.getResources(), R.drawable.music_next_icn, mBitmapOptions);
-		Bitmap nextPressedBitmap = BitmapFactory.decodeResource(mContext.getResources(), R.drawable.music_next_pressed_icn, mBitmapOptions);
-		ControlButton nextButton = new ControlButton(WIDTH - nextBitmap.getWidth(), HEIGHT - nextBitmap.getHeight(), nextBitmap, nextPressedBitmap) {
+		Bitmap nextBitmap = mResourceAtlas.getBitmap(R.drawable.music_next_icn);
+		Bitmap nextPressedBitmap = mResourceAtlas.getBitmap(R.drawable.music_next_pressed_icn);
+		ControlButton nextButton = new ControlButton(mWidth - nextBitmap.getWidth(), mHeight - nextBitmap.getHeight(), nextBitmap, nextPressedBitmap) {
 			@Override
 			public void onClick() {
 				mMediaPlayerAdapter.next();
@@ -486,13 +1029,47 @@ public class MusicControlExtension extends ControlExtension implements PlaybackL
 		};
 		mButtons.add(nextButton);
 
-		// Play pause
-		Bitmap playBitmap = BitmapFactory.decodeResource(mContext.getResources(), R.drawable.music_play_icn, mBitmapOptions);
-		Bitmap playPressedBitmap = BitmapFactory.decodeResource(mContext.getResources(), R.drawable.music_play_pressed_icn, mBitmapOptions);
-		Bitmap pauseBitmap = BitmapFactory.decodeResource(mContext.getResources(), R.drawable.music_pause_icn, mBitmapOptions);
-		Bitmap pausePressedBitmap = BitmapFactory.decodeResource(mContext.getResources(), R.drawable.music_pause_pressed_icn, mBitmapOptions);
-		mPlayPauseButton = new PlayPauseButton(PLAY_PAUSE_X, PLAY_PAUSE_Y, mMediaPlayerAdapter, playBitmap, playPressedBitmap, pauseBitmap, pausePressedBitmap);
+		createPlayPauseButton();
+	}
+
+	/**
+	 * Create the play pause button, last of the buttons, and set the regions
+	 * of all buttons. On a compact screen the button is at the right edge.
+	 */
+	private void createPlayPauseButton() {
+		Bitmap playBitmap = mResourceAtlas.getBitmap(R.drawable.music_play_icn);
+		Bitmap playPressedBitmap = mResourceAtlas.getBitmap(R.drawable.music_play_pressed_icn);
+		Bitmap pauseBitmap = mResourceAtlas.getBitmap(R.drawable.music_pause_icn);
+		Bitmap pausePressedBitmap = mResourceAtlas.getBitmap(R.drawable.music_pause_pressed_icn);
+		int x;
+		int y;
+		if (mLayout.isCompact()) {
+			x = mWidth - playBitmap.getWidth();
+			y = (mHeight - playBitmap.getHeight()) / 2;
+		} else {
+			x = mLayout.centerX(PLAY_PAUSE_X);
+			y = mLayout.centerY(PLAY_PAUSE_Y);
+		}
+		mPlayPauseButton = new PlayPauseButton(x, y, mMediaPlayerAdapter, playBitmap, playPressedBitmap, pauseBitmap, pausePressedBitmap);
 		mButtons.add(mPlayPauseButton);
+
+		for (int i = 0; i < mButtons.size(); i++) {
+			mCompositor.setRegion(REGION_BUTTON + i, mButtons.get(i).getRect());
+		}
+	}
+
+	/**
+	 * The volume receiver receives volume changes of the music stream.
+	 */
+	private class VolumeReceiver extends BroadcastReceiver {
+
+		@Override
+		public void onReceive(Context context, final Intent intent) {
+			if (intent.getIntExtra(EXTRA_VOLUME_STREAM_TYPE, -1) != AudioManager.STREAM_MUSIC) {
+				return;
+			}
+			updateVolume(intent.getIntExtra(EXTRA_VOLUME_STREAM_VALUE, mRequestedVolume));
+		}
 	}
 
 }
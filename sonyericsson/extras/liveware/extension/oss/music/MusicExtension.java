@@ -40,4 +40,10 @@ public class MusicExtension {
 
     public static final String LOG_TAG = "OSS_MusicExtension";
 
+    /**
+     * Log every media update and rendered frame. Off by default since the
+     * log messages are built on every update.
+     */
+    public static final boolean DEBUG_UPDATES = false;
+
 }
@@ -107,14 +107,22 @@ public class MusicRegistrationInformation extends RegistrationInformation {
         return 0;
     }
 
+    /**
+     * The widget is laid out for the size of each accessory, unless it is too
+     * small to draw the widget, see {@link ScreenLayout}.
+     */
     @Override
     public boolean isWidgetSizeSupported(int width, int height) {
-        return (width == MusicWidgetExtension.WIDTH && height == MusicWidgetExtension.HEIGHT);
+        return ScreenLayout.isSupported(MusicWidgetExtension.WIDTH, MusicWidgetExtension.HEIGHT, width, height);
     }
 
+    /**
+     * The control is laid out for the size of each accessory, unless it is
+     * too small to draw the control, see {@link ScreenLayout}.
+     */
     @Override
     public boolean isDisplaySizeSupported(int width, int height) {
-        return (width == MusicControlExtension.WIDTH && height == MusicControlExtension.HEIGHT);
+        return ScreenLayout.isSupported(MusicControlExtension.WIDTH, MusicControlExtension.HEIGHT, width, height);
     }
 
 }
@@ -41,6 +41,10 @@ import com.sonyericsson.extras.liveware.extension.util.widget.WidgetExtension;
  */
 public class MusicService extends ExtensionService {
 
+    private ArtworkPrerenderer mArtworkPrerenderer = null;
+
+    private ResourceAtlas mResourceAtlas = null;
+
     /**
      * Create music service.
      */
@@ -58,6 +62,12 @@ public class MusicService extends ExtensionService {
         super.onCreate();
 
         Dbg.d("MusicService: onCreate");
+
+        mResourceAtlas = new ResourceAtlas(this);
+
+        // Prepare album art for the accessory while the service is running.
+        mArtworkPrerenderer = new ArtworkPrerenderer(this);
+        mArtworkPrerenderer.start();
     }
 
     /**
@@ -69,6 +79,16 @@ public class MusicService extends ExtensionService {
     public void onDestroy() {
         Dbg.d("onDestroy");
 
+        if (mArtworkPrerenderer != null) {
+            mArtworkPrerenderer.stop();
+            mArtworkPrerenderer = null;
+        }
+
+        if (mResourceAtlas != null) {
+            mResourceAtlas.clear();
+            mResourceAtlas = null;
+        }
+
         super.onDestroy();
     }
 
@@ -82,12 +102,12 @@ public class MusicService extends ExtensionService {
 
     @Override
     public WidgetExtension createWidgetExtension(String hostAppPackageName) {
-        return new MusicWidgetExtension(this, hostAppPackageName);
+        return new MusicWidgetExtension(this, hostAppPackageName, mResourceAtlas);
     }
 
     @Override
     public ControlExtension createControlExtension(String hostAppPackageName) {
-        return new MusicControlExtension(this, hostAppPackageName);
+        return new MusicControlExtension(this, hostAppPackageName, mResourceAtlas);
     }
 
     /* (non-Javadoc)
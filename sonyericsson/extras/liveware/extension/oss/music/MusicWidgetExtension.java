@@ -31,10 +31,9 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 package com.sonyericsson.extras.liveware.extension.oss.music;
 
-import java.util.Random;
-
 import android.content.Context;
 import android.content.Intent;
+import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
@@ -46,11 +45,12 @@ import android.text.TextPaint;
 import android.text.format.DateUtils;
 import android.util.DisplayMetrics;
 
+import com.android.music.ArtworkKey;
 import com.sonyericsson.extras.liveware.aef.control.Control;
+import com.sonyericsson.extras.liveware.aef.widget.Widget;
 import com.sonyericsson.extras.liveware.extension.oss.music.player.MediaPlayerAdapter;
 import com.sonyericsson.extras.liveware.extension.oss.music.player.PlaybackListener;
 import com.sonyericsson.extras.liveware.extension.util.Dbg;
-import com.sonyericsson.extras.liveware.extension.util.ExtensionUtils;
 import com.sonyericsson.extras.liveware.extension.util.SmartWatchConst;
 import com.sonyericsson.extras.liveware.extension.util.widget.WidgetExtension;
 
@@ -61,8 +61,21 @@ public class MusicWidgetExtension extends WidgetExtension implements PlaybackLis
 
 	private static final int PX_FRAME_BORDER = 8;
 
+	/**
+	 * Shown in the inner frame while the album art is being loaded.
+	 */
+	private static final int ALBUM_ART_PLACEHOLDER_COLOR = 0xff303030;
+
+	/**
+	 * The width the widget is designed for. The positions below are in
+	 * pixels of this size, and are mapped to the widget of the accessory by a
+	 * {@link ScreenLayout}.
+	 */
 	public static final int WIDTH = 128;
 
+	/**
+	 * The height the widget is designed for.
+	 */
 	public static final int HEIGHT = 110;
 
 	private static final int TRACK_X_OFFSET = 0;
@@ -71,7 +84,70 @@ public class MusicWidgetExtension extends WidgetExtension implements PlaybackLis
 
 	private static final long INFO_TIMEOUT_MS = 2 * DateUtils.SECOND_IN_MILLIS;
 
-	private final BitmapFactory.Options mBitmapOptions;
+	/**
+	 * The widget image is always sent in full, so media updates are
+	 * collapsed over a longer time than for the control.
+	 */
+	private static final int UPDATE_WINDOW_MS = 300;
+
+	private static final int MAX_UPDATES_PER_SECOND = 2;
+
+	/**
+	 * Render request: the playback state has changed.
+	 */
+	private static final int RENDER_UPDATE = 1;
+
+	/**
+	 * Render request: draw and send the widget even if nothing has changed.
+	 */
+	private static final int RENDER_FORCE = 1 << 1;
+
+	private final ResourceAtlas mResourceAtlas;
+
+	private final ScreenLayout mLayout;
+
+	private final int mWidth;
+
+	private final int mHeight;
+
+	/**
+	 * The inner frame of the widget, in which the album art is shown. Empty if
+	 * the widget does not show album art.
+	 */
+	private final Rect mInnerFrame;
+
+	private final Rect mActiveTouchArea;
+
+	/**
+	 * The bottom right corner of the play pause icon.
+	 */
+	private final int mIconRight;
+
+	private final int mIconBottom;
+
+	private final int mTitleY;
+
+	private final int mArtistY;
+
+	private final FrameDiffer mFrameDiffer;
+
+	private final RenderContext mRenderContext;
+
+	private final FrameEncoder mFrameEncoder;
+
+	private final TextLayoutCache mTextLayoutCache = new TextLayoutCache();
+
+	private final TextPaint mTitlePaint;
+
+	private final TextPaint mArtistPaint;
+
+	private final Rect mTextFrame = new Rect();
+
+	/**
+	 * Reused for every image sent. Only used on the render thread, and the
+	 * extras are copied when the intent is broadcast.
+	 */
+	private final Intent mImageUpdateIntent = new Intent(Widget.Intents.WIDGET_IMAGE_UPDATE_INTENT);
 
 	private MediaPlayerAdapter mMediaPlayerAdapter;
 
@@ -81,14 +157,33 @@ public class MusicWidgetExtension extends WidgetExtension implements PlaybackLis
 
 	private Bitmap mCurrentAlbumArt = null;
 
+	private ArtworkKey mCurrentAlbumArtKey = null;
+
 	private boolean mCurrentIsPlaying = false;
 
-	private Rect mIconRect = null;
+	private final Rect mIconRect = new Rect();
 
 	private final Handler mHandler = new Handler();
 
 	private Runnable mInfoTimeout = null;
 
+	/**
+	 * The widget is rendered and sent on the render thread. The lifecycle
+	 * methods and the render thread change the state used for rendering while
+	 * holding the render lock.
+	 */
+	private final Object mRenderLock = new Object();
+
+	private final RenderMailbox mMailbox = new RenderMailbox(new RenderMailbox.Renderer() {
+		public void render(int flags) {
+			synchronized (mRenderLock) {
+				if (mMediaPlayerAdapter != null) {
+					updateWidget((flags & RENDER_FORCE) != 0);
+				}
+			}
+		}
+	});
+
 	/**
 	 * Create music extension widget.
 	 * 
@@ -96,69 +191,128 @@ public class MusicWidgetExtension extends WidgetExtension implements PlaybackLis
 	 *            The context.
 	 * @param hostAppPackageName
 	 *            The host app package name for this widget.
+	 * @param resourceAtlas
+	 *            The atlas holding the drawables. The drawables are scaled to
+	 *            the widget size of the accessory.
 	 */
-	public MusicWidgetExtension(final Context context, final String hostAppPackageName) {
+	public MusicWidgetExtension(final Context context, final String hostAppPackageName, final ResourceAtlas resourceAtlas) {
 		super(context, hostAppPackageName);
 
-		// Set some default bitmap factory options that we frequently will use.
-		mBitmapOptions = new BitmapFactory.Options();
-		// We use default throughout the extension to avoid any automatic
-		// scaling.
-		// Keep in mind that we are not showing the images on the phone, but on
-		// the accessory.
-		mBitmapOptions.inDensity = DisplayMetrics.DENSITY_DEFAULT;
-		mBitmapOptions.inTargetDensity = DisplayMetrics.DENSITY_DEFAULT;
+		if (resourceAtlas == null) {
+			throw new IllegalArgumentException("resourceAtlas == null");
+		}
+
+		// All positions and drawables are scaled to the widget once, frames
+		// are rendered at the size of the widget.
+		mLayout = ScreenLayout.getWidgetLayout(mContext, hostAppPackageName, WIDTH, HEIGHT);
+		mWidth = mLayout.getWidth();
+		mHeight = mLayout.getHeight();
+		mInnerFrame = getInnerFrame(mContext, mLayout);
+		mIconRight = mWidth - mLayout.scale(1);
+		mIconBottom = mHeight - mLayout.scale(1);
+		mFrameDiffer = new FrameDiffer(mWidth, mHeight);
+		mRenderContext = new RenderContext(mWidth, mHeight, Bitmap.Config.ARGB_8888);
+
+		mResourceAtlas = resourceAtlas.getScaled(mLayout.getDensity());
+		mFrameEncoder = new FrameEncoder(mContext, hostAppPackageName, mWidth, mHeight, true);
+
+		Resources resources = mContext.getResources();
+		mTitlePaint = new TextPaint();
+		mTitlePaint.setAntiAlias(true);
+		mTitlePaint.setTextAlign(Paint.Align.LEFT);
+		mTitlePaint.setTextSize(mLayout.scaleText(resources.getDimensionPixelSize(R.dimen.smart_watch_text_size_small)));
+		mTitlePaint.setColor(resources.getColor(R.color.smart_watch_text_color_grey));
+
+		mArtistPaint = new TextPaint(mTitlePaint);
+		mArtistPaint.setColor(Color.WHITE);
+		mArtistPaint.setTextSize(mLayout.scaleText(resources.getDimensionPixelSize(R.dimen.smart_watch_text_size_normal)));
+
+		if (mLayout.isCompact()) {
+			// A single row: the album art at the left, if the widget is high
+			// enough, the artist above the title beside it and the play pause
+			// icon at the right. The whole widget opens the control.
+			mActiveTouchArea = new Rect(0, 0, mWidth, mHeight);
+			mTextFrame.set(mInnerFrame.right + mLayout.scale(3), 0, mWidth, mHeight);
+			mArtistY = mHeight / 2 - mArtistPaint.getFontMetricsInt().descent;
+			mTitleY = mHeight / 2 - mTitlePaint.getFontMetricsInt().ascent;
+		} else {
+			mActiveTouchArea = mLayout.anchor(SmartWatchConst.ACTIVE_WIDGET_TOUCH_AREA);
+			mTextFrame.set(mInnerFrame.left + mLayout.scale(3), mInnerFrame.top, mInnerFrame.right, mInnerFrame.bottom - mLayout.scale(4));
+			mTitleY = mTextFrame.bottom - mLayout.scale(TRACK_X_OFFSET);
+			mArtistY = mTextFrame.bottom - mLayout.scale(ARTIST_X_OFFSET);
+		}
 	}
 
 	@Override
 	public void onStartRefresh() {
-		// Set a info timeout. If we don't get any info from the playback
-		// service then show that the playback info is not known.
-		mInfoTimeout = new Runnable() {
-			public void run() {
-				updateWidget(true);
-				mInfoTimeout = null;
+		synchronized (mRenderLock) {
+			// The accessory may show something else until the widget is
+			// refreshed.
+			mFrameDiffer.reset();
+
+			// Set a info timeout. If we don't get any info from the playback
+			// service then show that the playback info is not known.
+			mInfoTimeout = new Runnable() {
+				public void run() {
+					synchronized (mRenderLock) {
+						mInfoTimeout = null;
+					}
+					mMailbox.post(RENDER_FORCE);
+				}
+			};
+			mHandler.postDelayed(mInfoTimeout, INFO_TIMEOUT_MS);
+
+			// Start listening for play back updates
+			if (mMediaPlayerAdapter == null) {
+				mMediaPlayerAdapter = new MediaPlayerAdapter(mContext);
+				mMediaPlayerAdapter.setUpdateLimits(UPDATE_WINDOW_MS, MAX_UPDATES_PER_SECOND);
+				mMediaPlayerAdapter.registerListener(this);
+				mMediaPlayerAdapter.startAndBindToMediaService();
 			}
-		};
-		mHandler.postDelayed(mInfoTimeout, INFO_TIMEOUT_MS);
-
-		// Start listening for play back updates
-		if (mMediaPlayerAdapter == null) {
-			mMediaPlayerAdapter = new MediaPlayerAdapter(mContext);
-			mMediaPlayerAdapter.registerListener(this);
-			mMediaPlayerAdapter.startAndBindToMediaService();
-		}
 
-		// Clear saved info to make sure image is updated.
-		mCurrentArtist = null;
-		mCurrentTitle = null;
-		mCurrentAlbumArt = null;
-		mCurrentIsPlaying = false;
+			// Clear saved info to make sure image is updated.
+			mCurrentArtist = null;
+			mCurrentTitle = null;
+			mCurrentAlbumArt = null;
+			mCurrentAlbumArtKey = null;
+			mCurrentIsPlaying = false;
+		}
 	}
 
 	@Override
 	public void onStopRefresh() {
-		if (mMediaPlayerAdapter != null) {
-			// Stop listening for play back updates.
-			mMediaPlayerAdapter.unregisterListener(this);
-			mMediaPlayerAdapter.onDestroy();
-			mMediaPlayerAdapter = null;
-		}
+		mMailbox.clear();
+		synchronized (mRenderLock) {
+			if (mMediaPlayerAdapter != null) {
+				// Stop listening for play back updates.
+				mMediaPlayerAdapter.unregisterListener(this);
+				mMediaPlayerAdapter.onDestroy();
+				mMediaPlayerAdapter = null;
+			}
 
-		// Remove the info timeout.
-		if (mInfoTimeout != null) {
-			mHandler.removeCallbacks(mInfoTimeout);
-			mInfoTimeout = null;
+			// Remove the info timeout.
+			if (mInfoTimeout != null) {
+				mHandler.removeCallbacks(mInfoTimeout);
+				mInfoTimeout = null;
+			}
+
+			// Frames are drawn again when refreshed.
+			mRenderContext.release();
 		}
 	}
 
 	@Override
 	public void onDestroy() {
-		if (mMediaPlayerAdapter != null) {
-			// Stop listening for play back updates.
-			mMediaPlayerAdapter.unregisterListener(this);
-			mMediaPlayerAdapter.onDestroy();
-			mMediaPlayerAdapter = null;
+		mMailbox.clear();
+		synchronized (mRenderLock) {
+			mTextLayoutCache.clear();
+			if (mMediaPlayerAdapter != null) {
+				// Stop listening for play back updates.
+				mMediaPlayerAdapter.unregisterListener(this);
+				mMediaPlayerAdapter.onDestroy();
+				mMediaPlayerAdapter = null;
+			}
+			mFrameEncoder.release();
 		}
 	}
 
@@ -166,7 +320,11 @@ public class MusicWidgetExtension extends WidgetExtension implements PlaybackLis
 	public void onTouch(final int type, final int x, final int y) {
 		Dbg.d("onTouch: " + type + " x: " + x + " y: " + y);
 
-		if (mIconRect != null && mIconRect.contains(x, y)) {
+		boolean isIconTapped;
+		synchronized (mIconRect) {
+			isIconTapped = mIconRect.contains(x, y);
+		}
+		if (isIconTapped) {
 			// Icon tapped. Toggle play state.
 			if (mMediaPlayerAdapter.isPlaying()) {
 				mMediaPlayerAdapter.pause();
@@ -174,7 +332,7 @@ public class MusicWidgetExtension extends WidgetExtension implements PlaybackLis
 				mMediaPlayerAdapter.play();
 			}
 		} else {
-			if (!SmartWatchConst.ACTIVE_WIDGET_TOUCH_AREA.contains(x, y)) {
+			if (!mActiveTouchArea.contains(x, y)) {
 				Dbg.d("Touch outside active area x: " + x + " y: " + y);
 				return;
 			}
@@ -187,7 +345,8 @@ public class MusicWidgetExtension extends WidgetExtension implements PlaybackLis
 	}
 
 	/**
-	 * Update widget.
+	 * Update widget. Called on the render thread while holding the render
+	 * lock.
 	 * 
 	 * @param forceUpdate
 	 *            True if update regardless if playback info is changed.
@@ -195,13 +354,20 @@ public class MusicWidgetExtension extends WidgetExtension implements PlaybackLis
 	protected void updateWidget(boolean forceUpdate) {
 		String artist = mMediaPlayerAdapter.getArtist();
 		String title = mMediaPlayerAdapter.getTitle();
-		Bitmap albumArt = mMediaPlayerAdapter.getAlbumArt();
+		Rect innerFrame = mInnerFrame;
+		ArtworkKey albumArtKey = mMediaPlayerAdapter.getAlbumArtKey();
+		Bitmap albumArt = mCurrentAlbumArt;
+		if (!innerFrame.isEmpty() && (forceUpdate || albumArt == null || !albumArtKey.equals(mCurrentAlbumArtKey))) {
+			// Album art changed or not loaded yet. Other updates reuse the album
+			// art already shown.
+			albumArt = mMediaPlayerAdapter.peekAlbumArt(innerFrame.width(), innerFrame.height());
+		}
 		boolean isPlaying = mMediaPlayerAdapter.isPlaying();
 
 		// If not forced update and we are not waiting for first info and
 		// playback info is unchanged, then don't send an update to avoid
 		// unnecessary flickering of the display.
-		if (!forceUpdate && mInfoTimeout == null && Utils.equalsNullSafe(artist, mCurrentArtist) && Utils.equalsNullSafe(title, mCurrentTitle) && Utils.equalsNullSafe(albumArt, mCurrentAlbumArt)
+		if (!forceUpdate && mInfoTimeout == null && Utils.equalsNullSafe(artist, mCurrentArtist) && Utils.equalsNullSafe(title, mCurrentTitle) && albumArtKey.equals(mCurrentAlbumArtKey) && albumArt == mCurrentAlbumArt
 				&& isPlaying == mCurrentIsPlaying) {
 			Dbg.d("Widget: Track info already up to date");
 			return;
@@ -213,64 +379,24 @@ public class MusicWidgetExtension extends WidgetExtension implements PlaybackLis
 			mInfoTimeout = null;
 		}
 
+		boolean isAlbumArtChanged = forceUpdate || !albumArtKey.equals(mCurrentAlbumArtKey) || albumArt != mCurrentAlbumArt;
 		mCurrentArtist = artist;
 		mCurrentTitle = title;
 		mCurrentAlbumArt = albumArt;
+		mCurrentAlbumArtKey = albumArtKey;
 		mCurrentIsPlaying = isPlaying;
 
-		// Create bitmap to draw in.
-		Bitmap bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
-
-		// Set the density to default to avoid scaling.
-		bitmap.setDensity(DisplayMetrics.DENSITY_DEFAULT);
-		Canvas canvas = new Canvas(bitmap);
-		Paint paint = new Paint();
-
-		// Frame
-		Bitmap frameBitmap = BitmapFactory.decodeResource(mContext.getResources(), R.drawable.widget_frame, mBitmapOptions);
-		int left = (WIDTH - frameBitmap.getWidth()) / 2;
-		int top = HEIGHT - frameBitmap.getHeight() - 1;
-		Rect frame = new Rect(left, top, left + frameBitmap.getWidth(), top + frameBitmap.getHeight());
-		canvas.drawBitmap(frameBitmap, frame.left, frame.top, paint);
-		Rect innerFrame = new Rect(frame.left + PX_FRAME_BORDER, frame.top + PX_FRAME_BORDER, frame.right - PX_FRAME_BORDER, frame.bottom - PX_FRAME_BORDER);
-
-		// AlbumArt
-		if (albumArt == null) {
-
-			int albumImgIndex = 1;
-			int ramdomIndex = CommonUtil.showRandomInteger(1, 6, new Random());
-			switch (ramdomIndex) {
-			case 1:
-				albumImgIndex = R.drawable.default_music_album_1;
-				break;
-			case 2:
-				albumImgIndex = R.drawable.default_music_album_2;
-				break;
-			case 3:
-				albumImgIndex = R.drawable.default_music_album_3;
-				break;
-			case 4:
-				albumImgIndex = R.drawable.default_music_album_4;
-				break;
-			case 5:
-				albumImgIndex = R.drawable.default_music_album_5;
-				break;
-			case 6:
-				albumImgIndex = R.drawable.default_music_album_6;
-				break;
-			}
-
-			albumArt = BitmapFactory.decodeResource(mContext.getResources(), albumImgIndex, mBitmapOptions);
+		// The frame, the album art and the text background only change with
+		// the album art. Other updates reuse them.
+		if (isAlbumArtChanged || !mRenderContext.hasBaseLayer()) {
+			drawBaseLayer(albumArt, innerFrame);
 		}
-		Rect source = new Rect(0, 0, albumArt.getWidth(), albumArt.getHeight());
-		canvas.drawBitmap(albumArt, source, innerFrame, paint);
 
-		// Add background for text. Align it to bottom of inner frame.
-		Bitmap textBackgroundBitmap = BitmapFactory.decodeResource(mContext.getResources(), R.drawable.widget_text_3_bg, mBitmapOptions);
-		int backgroundTop = innerFrame.bottom - textBackgroundBitmap.getHeight();
-		canvas.drawBitmap(textBackgroundBitmap, innerFrame.left, backgroundTop, paint);
+		// Draw in the back buffer of the render context.
+		Canvas canvas = mRenderContext.beginFrame();
+		Paint paint = mRenderContext.getPaint();
 
-		Rect textFrame = new Rect(innerFrame.left + 3, innerFrame.top, innerFrame.right, innerFrame.bottom - 4);
+		Rect textFrame = mTextFrame;
 
 		// Add play pause icon
 		int iconResourceId;
@@ -279,34 +405,118 @@ public class MusicWidgetExtension extends WidgetExtension implements PlaybackLis
 		} else {
 			iconResourceId = R.drawable.music_widget_play_icn;
 		}
-		Bitmap icon = BitmapFactory.decodeResource(mContext.getResources(), iconResourceId, mBitmapOptions);
-		mIconRect = new Rect(WIDTH - 1 - icon.getWidth(), HEIGHT - 1 - icon.getHeight(), WIDTH - 1, HEIGHT - 1);
-
-		// Create default text paint
-		TextPaint textPaint = new TextPaint(paint);
-		textPaint.setAntiAlias(true);
-		textPaint.setTextAlign(Paint.Align.LEFT);
+		Bitmap icon = mResourceAtlas.getBitmap(iconResourceId);
+		int iconBottom = mLayout.isCompact() ? (mHeight + icon.getHeight()) / 2 : mIconBottom;
+		synchronized (mIconRect) {
+			// Also read by touch events on the main thread.
+			mIconRect.set(mIconRight - icon.getWidth(), iconBottom - icon.getHeight(), mIconRight, iconBottom);
+		}
 
 		// Add song title
 		if (title != null) {
-			TextPaint titlePaint = new TextPaint(textPaint);
-			titlePaint.setTextSize(mContext.getResources().getDimensionPixelSize(R.dimen.smart_watch_text_size_small));
-			titlePaint.setColor(mContext.getResources().getColor(R.color.smart_watch_text_color_grey));
-			ExtensionUtils.drawText(canvas, title, textFrame.left, textFrame.bottom - TRACK_X_OFFSET, titlePaint, mIconRect.left - textFrame.left);
+			mTextLayoutCache.drawText(canvas, title, textFrame.left, mTitleY, mTitlePaint, mIconRect.left - textFrame.left);
 		}
 
-		// Add artist
+		// Add artist. On a compact widget the artist is also beside the icon.
 		if (artist != null) {
-			TextPaint artistTextPaint = new TextPaint(textPaint);
-			artistTextPaint.setColor(Color.WHITE);
-			artistTextPaint.setTextSize(mContext.getResources().getDimensionPixelSize(R.dimen.smart_watch_text_size_normal));
-			ExtensionUtils.drawText(canvas, artist, textFrame.left, textFrame.bottom - ARTIST_X_OFFSET, artistTextPaint, textFrame.right - textFrame.left);
+			int artistRight = mLayout.isCompact() ? mIconRect.left : textFrame.right;
+			mTextLayoutCache.drawText(canvas, artist, textFrame.left, mArtistY, mArtistPaint, artistRight - textFrame.left);
 		}
 
 		canvas.drawBitmap(icon, mIconRect.left, mIconRect.top, paint);
+		Bitmap bitmap = mRenderContext.endFrame();
+
+		// The widget image can only be sent in full, so skip frames that do
+		// not differ from what the accessory already shows.
+		if (mFrameDiffer.diff(bitmap, 0, 0) == 0) {
+			Dbg.d("Widget: Frame unchanged");
+		} else {
+			Dbg.d("Updating widget");
+			sendBitmap(bitmap);
+		}
+	}
+
+	/**
+	 * Send the widget image to the accessory, encoded for the color depth of
+	 * its display.
+	 * 
+	 * @param bitmap
+	 *            The image.
+	 */
+	private void sendBitmap(Bitmap bitmap) {
+		Intent intent = mImageUpdateIntent;
+		intent.putExtra(Widget.Intents.EXTRA_WIDGET_IMAGE_DATA, mFrameEncoder.encode(bitmap, 0, 0));
+		sendToHostApp(intent);
+	}
+
+	/**
+	 * Draw the base layer of the widget, that is the frame, the album art and
+	 * the background for the text. A compact widget has no frame and no text
+	 * background.
+	 */
+	private void drawBaseLayer(Bitmap albumArt, Rect innerFrame) {
+		Canvas canvas = mRenderContext.beginBaseLayer();
+		Paint paint = mRenderContext.getPaint();
 
-		Dbg.d("Updating widget");
-		showBitmap(bitmap);
+		// Frame
+		if (mLayout.isCompact()) {
+			canvas.drawColor(Color.BLACK);
+		} else {
+			Bitmap frameBitmap = mResourceAtlas.getBitmap(R.drawable.widget_frame);
+			int left = (mWidth - frameBitmap.getWidth()) / 2;
+			int top = mHeight - frameBitmap.getHeight() - mLayout.scale(1);
+			canvas.drawBitmap(frameBitmap, left, top, paint);
+		}
+
+		// AlbumArt, cropped to the aspect ratio of the inner frame. While the
+		// album art is being loaded the inner frame shows a placeholder, the
+		// widget is updated again when it has been loaded.
+		if (albumArt != null) {
+			Rect source = mRenderContext.getSourceRect();
+			ScreenLayout.centerCrop(albumArt.getWidth(), albumArt.getHeight(), innerFrame, source);
+			canvas.drawBitmap(albumArt, source, innerFrame, paint);
+		} else if (!innerFrame.isEmpty()) {
+			canvas.save();
+			canvas.clipRect(innerFrame);
+			canvas.drawColor(ALBUM_ART_PLACEHOLDER_COLOR);
+			canvas.restore();
+		}
+		if (mLayout.isCompact()) {
+			return;
+		}
+
+		// Add background for text. Align it to bottom of inner frame.
+		Bitmap textBackgroundBitmap = mResourceAtlas.getBitmap(R.drawable.widget_text_3_bg);
+		int backgroundTop = innerFrame.bottom - textBackgroundBitmap.getHeight();
+		canvas.drawBitmap(textBackgroundBitmap, innerFrame.left, backgroundTop, paint);
+	}
+
+	/**
+	 * Get the inner frame of the widget, in which the album art is shown. Only
+	 * the bounds of the frame image are decoded.
+	 * 
+	 * @param context
+	 *            The context.
+	 * @param layout
+	 *            The layout of the widget.
+	 * @return The inner frame. The album art square of a compact widget, which
+	 *         has no frame.
+	 */
+	static Rect getInnerFrame(Context context, ScreenLayout layout) {
+		if (layout.isCompact()) {
+			return layout.getCompactArtRect();
+		}
+
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inDensity = DisplayMetrics.DENSITY_DEFAULT;
+		options.inTargetDensity = layout.getDensity();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeResource(context.getResources(), R.drawable.widget_frame, options);
+
+		int left = (layout.getWidth() - options.outWidth) / 2;
+		int top = layout.getHeight() - options.outHeight - layout.scale(1);
+		int border = layout.scale(PX_FRAME_BORDER);
+		return new Rect(left + border, top + border, left + options.outWidth - border, top + options.outHeight - border);
 	}
 
 	/*
@@ -318,7 +528,19 @@ public class MusicWidgetExtension extends WidgetExtension implements PlaybackLis
 	 */
 	public void onUpdate() {
 		// Update the widget
-		updateWidget(false);
+		mMailbox.post(RENDER_UPDATE);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.sonyericsson.extras.liveware.extension.oss.music.player.PlaybackListener
+	 * #onAlbumArtUpdate()
+	 */
+	public void onAlbumArtUpdate() {
+		// Update the widget with the loaded album art.
+		mMailbox.post(RENDER_UPDATE);
 	}
 
 }
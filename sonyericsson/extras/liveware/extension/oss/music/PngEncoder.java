@@ -0,0 +1,195 @@
+package com.sonyericsson.extras.liveware.extension.oss.music;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * The PNG encoder writes images with few bits per pixel, grayscale or indexed
+ * by a palette. The platform encoder always writes 24 or 32 bits per pixel,
+ * which is a waste for displays that can only show a few colors. The buffers
+ * are reused, so encoding does not allocate any objects except for growing
+ * the buffers. The encoder holds native memory until {@link #release()} is
+ * called.
+ */
+class PngEncoder {
+
+	/**
+	 * PNG color type for grayscale images.
+	 */
+	public static final int COLOR_TYPE_GRAY = 0;
+
+	/**
+	 * PNG color type for images indexed by a palette.
+	 */
+	public static final int COLOR_TYPE_PALETTE = 3;
+
+	private static final byte[] SIGNATURE = { (byte) 137, 80, 78, 71, 13, 10, 26, 10 };
+
+	private static final byte[] IHDR = { 'I', 'H', 'D', 'R' };
+
+	private static final byte[] PLTE = { 'P', 'L', 'T', 'E' };
+
+	private static final byte[] TRNS = { 't', 'R', 'N', 'S' };
+
+	private static final byte[] IDAT = { 'I', 'D', 'A', 'T' };
+
+	private static final byte[] IEND = { 'I', 'E', 'N', 'D' };
+
+	private final Deflater mDeflater = new Deflater(Deflater.BEST_COMPRESSION);
+
+	private final CRC32 mCrc = new CRC32();
+
+	private final ChunkBuffer mChunk = new ChunkBuffer();
+
+	private final byte[] mDeflateBuffer = new byte[1024];
+
+	private final byte[] mHeader = new byte[13];
+
+	private byte[] mScanlines = new byte[0];
+
+	/**
+	 * Encode an image.
+	 *
+	 * @param out
+	 *            The stream to write the image to.
+	 * @param samples
+	 *            The gray level or palette index of each pixel, row by row.
+	 * @param width
+	 *            The width of the image.
+	 * @param height
+	 *            The height of the image.
+	 * @param bitDepth
+	 *            The number of bits per sample: 1, 2, 4 or 8.
+	 * @param colorType
+	 *            {@link #COLOR_TYPE_GRAY} or {@link #COLOR_TYPE_PALETTE}.
+	 * @param palette
+	 *            The palette as 0xAARRGGBB colors. The alpha of colors that
+	 *            are not opaque is written in a transparency chunk. Only used
+	 *            for {@link #COLOR_TYPE_PALETTE}.
+	 * @param paletteSize
+	 *            The number of colors in the palette.
+	 */
+	public void encode(ByteArrayOutputStream out, byte[] samples, int width, int height, int bitDepth, int colorType, int[] palette, int paletteSize) {
+		out.write(SIGNATURE, 0, SIGNATURE.length);
+
+		// Header
+		byte[] header = mHeader;
+		putInt(header, 0, width);
+		putInt(header, 4, height);
+		header[8] = (byte) bitDepth;
+		header[9] = (byte) colorType;
+		header[10] = 0; // Deflate
+		header[11] = 0; // Adaptive filtering
+		header[12] = 0; // No interlace
+		writeChunk(out, IHDR, header, header.length);
+
+		// Palette
+		if (colorType == COLOR_TYPE_PALETTE) {
+			mChunk.reset();
+			for (int i = 0; i < paletteSize; i++) {
+				int color = palette[i];
+				mChunk.write((color >> 16) & 0xff);
+				mChunk.write((color >> 8) & 0xff);
+				mChunk.write(color & 0xff);
+			}
+			writeChunk(out, PLTE, mChunk);
+
+			// Transparency, up to the last color that is not opaque.
+			int alphaCount = paletteSize;
+			while (alphaCount > 0 && (palette[alphaCount - 1] >>> 24) == 0xff) {
+				alphaCount--;
+			}
+			if (alphaCount > 0) {
+				mChunk.reset();
+				for (int i = 0; i < alphaCount; i++) {
+					mChunk.write(palette[i] >>> 24);
+				}
+				writeChunk(out, TRNS, mChunk);
+			}
+		}
+
+		// Pack the samples of each row, preceded by filter type none.
+		int rowBytes = (width * bitDepth + 7) / 8 + 1;
+		if (mScanlines.length < rowBytes * height) {
+			mScanlines = new byte[rowBytes * height];
+		}
+		int samplesPerByte = 8 / bitDepth;
+		for (int y = 0; y < height; y++) {
+			int offset = y * rowBytes;
+			mScanlines[offset] = 0;
+			for (int i = 1; i < rowBytes; i++) {
+				mScanlines[offset + i] = 0;
+			}
+			for (int x = 0; x < width; x++) {
+				int shift = 8 - bitDepth * (x % samplesPerByte + 1);
+				mScanlines[offset + 1 + x / samplesPerByte] |= (samples[y * width + x] & 0xff) << shift;
+			}
+		}
+
+		// Compressed image data
+		mChunk.reset();
+		mDeflater.reset();
+		mDeflater.setInput(mScanlines, 0, rowBytes * height);
+		mDeflater.finish();
+		while (!mDeflater.finished()) {
+			int length = mDeflater.deflate(mDeflateBuffer);
+			mChunk.write(mDeflateBuffer, 0, length);
+		}
+		writeChunk(out, IDAT, mChunk);
+
+		writeChunk(out, IEND, mHeader, 0);
+	}
+
+	/**
+	 * Release the native memory held by the compressor. The encoder must not
+	 * be used after it has been released.
+	 */
+	public void release() {
+		mDeflater.end();
+	}
+
+	private void writeChunk(ByteArrayOutputStream out, byte[] type, ChunkBuffer data) {
+		writeChunk(out, type, data.getBuffer(), data.size());
+	}
+
+	private void writeChunk(ByteArrayOutputStream out, byte[] type, byte[] data, int length) {
+		writeInt(out, length);
+		mCrc.reset();
+		mCrc.update(type, 0, type.length);
+		mCrc.update(data, 0, length);
+		out.write(type, 0, type.length);
+		out.write(data, 0, length);
+		writeInt(out, (int) mCrc.getValue());
+	}
+
+	private static void writeInt(ByteArrayOutputStream out, int value) {
+		out.write(value >>> 24);
+		out.write(value >>> 16);
+		out.write(value >>> 8);
+		out.write(value);
+	}
+
+	private static void putInt(byte[] bytes, int offset, int value) {
+		bytes[offset] = (byte) (value >>> 24);
+		bytes[offset + 1] = (byte) (value >>> 16);
+		bytes[offset + 2] = (byte) (value >>> 8);
+		bytes[offset + 3] = (byte) value;
+	}
+
+	/**
+	 * Buffer for the data of a chunk, giving access to the buffered bytes
+	 * without copying them.
+	 */
+	private static final class ChunkBuffer extends ByteArrayOutputStream {
+
+		public ChunkBuffer() {
+			super(1024);
+		}
+
+		public byte[] getBuffer() {
+			return buf;
+		}
+	}
+
+}
@@ -0,0 +1,190 @@
+package com.sonyericsson.extras.liveware.extension.oss.music;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.util.DisplayMetrics;
+
+/**
+ * The render context holds the objects needed to render frames for an
+ * extension, so that rendering a frame does not allocate any objects. Frames
+ * are double buffered: a new frame is drawn in the back buffer while the
+ * front buffer keeps the last complete frame, which is used to send parts of
+ * the screen.
+ * <p>
+ * A frame is composed of layers. The base layer holds the parts of the frame
+ * that change rarely, such as the album art and the overlays on top of it,
+ * and is kept between frames, so that a new frame only costs one blit of the
+ * base layer plus the layers that have changed.
+ */
+class RenderContext {
+
+	private final int mWidth;
+
+	private final int mHeight;
+
+	private final Bitmap.Config mConfig;
+
+	private final Bitmap[] mFrames = new Bitmap[2];
+
+	private int mFront = -1;
+
+	private Bitmap mBaseLayer = null;
+
+	private final Canvas mCanvas = new Canvas();
+
+	private final Paint mPaint = new Paint();
+
+	/**
+	 * Copies the base layer into a frame, including its transparent parts.
+	 */
+	private final Paint mCopyPaint = new Paint();
+
+	private final Rect mSourceRect = new Rect();
+
+	private final Rect mDestRect = new Rect();
+
+	/**
+	 * Create render context.
+	 *
+	 * @param width
+	 *            The frame width.
+	 * @param height
+	 *            The frame height.
+	 * @param config
+	 *            The frame bitmap config.
+	 */
+	public RenderContext(final int width, final int height, final Bitmap.Config config) {
+		mWidth = width;
+		mHeight = height;
+		mConfig = config;
+		mCopyPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+	}
+
+	/**
+	 * Start drawing the base layer. Call {@link #beginFrame()} when done.
+	 *
+	 * @return The canvas to draw the base layer with. The layer is cleared.
+	 */
+	public Canvas beginBaseLayer() {
+		if (mBaseLayer == null) {
+			mBaseLayer = BitmapPool.acquire(mWidth, mHeight, mConfig);
+			mBaseLayer.setDensity(DisplayMetrics.DENSITY_DEFAULT);
+		} else {
+			mBaseLayer.eraseColor(0);
+		}
+		mCanvas.setBitmap(mBaseLayer);
+		return mCanvas;
+	}
+
+	/**
+	 * Check if the base layer has been drawn.
+	 *
+	 * @return True if there is a base layer.
+	 */
+	public boolean hasBaseLayer() {
+		return mBaseLayer != null;
+	}
+
+	/**
+	 * Start drawing a new frame in the back buffer. The frame starts with the
+	 * base layer if one has been drawn.
+	 *
+	 * @return The canvas to draw the rest of the frame with.
+	 */
+	public Canvas beginFrame() {
+		int back = mFront == 0 ? 1 : 0;
+		if (mFrames[back] == null) {
+			mFrames[back] = BitmapPool.acquire(mWidth, mHeight, mConfig);
+			// Set the density to default to avoid scaling.
+			mFrames[back].setDensity(DisplayMetrics.DENSITY_DEFAULT);
+		} else if (mBaseLayer == null) {
+			mFrames[back].eraseColor(0);
+		}
+		mCanvas.setBitmap(mFrames[back]);
+		if (mBaseLayer != null) {
+			// The back buffer still holds an older frame. The base layer
+			// replaces every pixel of it, also where the base layer is
+			// transparent, so the frame does not have to be cleared first.
+			mCanvas.drawBitmap(mBaseLayer, 0, 0, mCopyPaint);
+		}
+		return mCanvas;
+	}
+
+	/**
+	 * The frame started with {@link #beginFrame()} is complete. It becomes
+	 * the front frame.
+	 *
+	 * @return The frame.
+	 */
+	public Bitmap endFrame() {
+		mFront = mFront == 0 ? 1 : 0;
+		return mFrames[mFront];
+	}
+
+	/**
+	 * Get the last complete frame.
+	 *
+	 * @return The frame, or null if no frame has been drawn.
+	 */
+	public Bitmap getFrame() {
+		return mFront >= 0 ? mFrames[mFront] : null;
+	}
+
+	/**
+	 * Get the canvas to draw in another bitmap, for example a part of the
+	 * frame to send. The canvas state should be restored when done.
+	 *
+	 * @param bitmap
+	 *            The bitmap to draw in.
+	 * @return The canvas.
+	 */
+	public Canvas getCanvas(Bitmap bitmap) {
+		mCanvas.setBitmap(bitmap);
+		return mCanvas;
+	}
+
+	/**
+	 * Get the paint used to draw bitmaps.
+	 *
+	 * @return The paint.
+	 */
+	public Paint getPaint() {
+		return mPaint;
+	}
+
+	/**
+	 * Get a rectangle for the source of a draw call.
+	 *
+	 * @return The rectangle.
+	 */
+	public Rect getSourceRect() {
+		return mSourceRect;
+	}
+
+	/**
+	 * Get a rectangle for the destination of a draw call.
+	 *
+	 * @return The rectangle.
+	 */
+	public Rect getDestRect() {
+		return mDestRect;
+	}
+
+	/**
+	 * Return the frames and the base layer to the bitmap pool.
+	 */
+	public void release() {
+		for (int i = 0; i < mFrames.length; i++) {
+			BitmapPool.release(mFrames[i]);
+			mFrames[i] = null;
+		}
+		mFront = -1;
+		BitmapPool.release(mBaseLayer);
+		mBaseLayer = null;
+	}
+
+}
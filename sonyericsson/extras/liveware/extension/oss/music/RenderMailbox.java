@@ -0,0 +1,111 @@
+package com.sonyericsson.extras.liveware.extension.oss.music;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+/**
+ * The render mailbox hands render requests from the main thread to the render
+ * thread. The mailbox has a single slot: a request posted while another one
+ * is pending is merged into it, so a busy extension renders the newest state
+ * once instead of every state in between. Requests are described by flags
+ * that are defined by the renderer.
+ */
+class RenderMailbox {
+
+	/**
+	 * Renders the requests of a mailbox.
+	 */
+	public interface Renderer {
+
+		/**
+		 * Render a request. Called on the render thread.
+		 *
+		 * @param flags
+		 *            The flags of all requests posted since the last call.
+		 */
+		public void render(int flags);
+	}
+
+	/**
+	 * All extensions share one render thread. Frames are small, and rendering
+	 * several in parallel would only compete for the same resources.
+	 */
+	private static Handler sHandler = null;
+
+	private final Renderer mRenderer;
+
+	private final Handler mHandler;
+
+	private int mFlags = 0;
+
+	private final Runnable mRender = new Runnable() {
+		public void run() {
+			int flags;
+			synchronized (RenderMailbox.this) {
+				flags = mFlags;
+				mFlags = 0;
+			}
+			if (flags != 0) {
+				mRenderer.render(flags);
+			}
+		}
+	};
+
+	/**
+	 * Create render mailbox.
+	 *
+	 * @param renderer
+	 *            The renderer.
+	 */
+	public RenderMailbox(final Renderer renderer) {
+		if (renderer == null) {
+			throw new IllegalArgumentException("renderer == null");
+		}
+		mRenderer = renderer;
+		mHandler = getHandler();
+	}
+
+	/**
+	 * Get the handler of the render thread. The thread is started the first
+	 * time it is used.
+	 *
+	 * @return The handler.
+	 */
+	static synchronized Handler getHandler() {
+		if (sHandler == null) {
+			HandlerThread thread = new HandlerThread("MusicRender", Process.THREAD_PRIORITY_DEFAULT);
+			thread.start();
+			sHandler = new Handler(thread.getLooper());
+		}
+		return sHandler;
+	}
+
+	/**
+	 * Post a render request. Merged with the pending request, if any.
+	 *
+	 * @param flags
+	 *            The flags describing the request. Must not be 0.
+	 */
+	public void post(int flags) {
+		synchronized (this) {
+			boolean isPending = mFlags != 0;
+			mFlags |= flags;
+			if (isPending) {
+				return;
+			}
+		}
+		mHandler.post(mRender);
+	}
+
+	/**
+	 * Drop the pending request.
+	 */
+	public void clear() {
+		synchronized (this) {
+			mFlags = 0;
+		}
+		mHandler.removeCallbacks(mRender);
+	}
+
+}
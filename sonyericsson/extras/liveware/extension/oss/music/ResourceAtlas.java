@@ -0,0 +1,109 @@
+package com.sonyericsson.extras.liveware.extension.oss.music;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.DisplayMetrics;
+import android.util.SparseArray;
+
+/**
+ * The resource atlas holds the static drawables used by the widget and the
+ * control. Each drawable is decoded the first time it is used and is then
+ * shared by all extensions created by the same service, so rendering a frame
+ * does not decode any resources. Screens that are not of the size the
+ * drawables are made for use a scaled atlas, which decodes the drawables at
+ * the scaled size.
+ */
+public class ResourceAtlas {
+
+	private final Context mContext;
+
+	private final BitmapFactory.Options mBitmapOptions;
+
+	private final SparseArray<Bitmap> mBitmaps = new SparseArray<Bitmap>();
+
+	private final int mDensity;
+
+	/**
+	 * The scaled atlases, by density. Only used by the atlas of the default
+	 * density.
+	 */
+	private final SparseArray<ResourceAtlas> mScaledAtlases = new SparseArray<ResourceAtlas>();
+
+	/**
+	 * Create resource atlas.
+	 *
+	 * @param context
+	 *            The context.
+	 */
+	public ResourceAtlas(final Context context) {
+		this(context, DisplayMetrics.DENSITY_DEFAULT);
+	}
+
+	private ResourceAtlas(final Context context, final int density) {
+		if (context == null) {
+			throw new IllegalArgumentException("context == null");
+		}
+		mContext = context;
+		mDensity = density;
+
+		// We use default throughout the extension to avoid any automatic
+		// scaling. Scaled atlases let the decoder scale to their density.
+		mBitmapOptions = new BitmapFactory.Options();
+		mBitmapOptions.inDensity = DisplayMetrics.DENSITY_DEFAULT;
+		mBitmapOptions.inTargetDensity = density;
+	}
+
+	/**
+	 * Get the atlas holding the drawables scaled to a density. Created the
+	 * first time it is used and then shared.
+	 *
+	 * @param density
+	 *            The density, see {@link ScreenLayout#getDensity()}.
+	 * @return The atlas. This atlas for the default density.
+	 */
+	public synchronized ResourceAtlas getScaled(int density) {
+		if (density == mDensity) {
+			return this;
+		}
+		ResourceAtlas atlas = mScaledAtlases.get(density);
+		if (atlas == null) {
+			atlas = new ResourceAtlas(mContext, density);
+			mScaledAtlases.put(density, atlas);
+		}
+		return atlas;
+	}
+
+	/**
+	 * Get a drawable as a bitmap.
+	 *
+	 * @param resourceId
+	 *            The id of the drawable.
+	 * @return The bitmap. Shared, must not be modified or recycled.
+	 */
+	public synchronized Bitmap getBitmap(int resourceId) {
+		Bitmap bitmap = mBitmaps.get(resourceId);
+		if (bitmap == null) {
+			bitmap = BitmapFactory.decodeResource(mContext.getResources(), resourceId, mBitmapOptions);
+			if (bitmap != null) {
+				// Drawn at its decoded size on frames of the default density.
+				bitmap.setDensity(DisplayMetrics.DENSITY_DEFAULT);
+			}
+			mBitmaps.put(resourceId, bitmap);
+		}
+		return bitmap;
+	}
+
+	/**
+	 * Drop all decoded drawables. The bitmaps are not recycled since they may
+	 * still be drawn by an extension that has not yet been destroyed.
+	 */
+	public synchronized void clear() {
+		mBitmaps.clear();
+		for (int i = 0; i < mScaledAtlases.size(); i++) {
+			mScaledAtlases.valueAt(i).clear();
+		}
+		mScaledAtlases.clear();
+	}
+
+}
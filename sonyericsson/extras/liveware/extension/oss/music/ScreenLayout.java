@@ -0,0 +1,437 @@
+package com.sonyericsson.extras.liveware.extension.oss.music;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.Context;
+import android.graphics.Rect;
+import android.util.DisplayMetrics;
+
+import com.sonyericsson.extras.liveware.extension.util.Dbg;
+import com.sonyericsson.extras.liveware.extension.util.registration.DeviceInfo;
+import com.sonyericsson.extras.liveware.extension.util.registration.DisplayInfo;
+import com.sonyericsson.extras.liveware.extension.util.registration.HostApplicationInfo;
+import com.sonyericsson.extras.liveware.extension.util.registration.RegistrationAdapter;
+
+/**
+ * The screen layout maps a design made for a reference screen size to the
+ * screen of an accessory. The design is scaled uniformly, by the largest
+ * factor that fits the screen, and each element is anchored to an edge or to
+ * the center of the screen. The scale is expressed as a density, so the
+ * drawables can be decoded at the scaled size once, see
+ * {@link ResourceAtlas#getScaled(int)}. Text is not scaled below a readable
+ * size. A screen that is too low for the design, but wide enough, is laid out
+ * as a compact screen instead: a single row with the album art at the left,
+ * if the screen is high enough to show it, and the text beside it. The
+ * compact row is scaled to the height of the screen. Other screens that would
+ * scale the design below half its size are not supported. All positions are
+ * computed when an extension is created, so rendering a frame does not scale
+ * anything.
+ */
+class ScreenLayout {
+
+	/**
+	 * The smallest scale of the design that can be drawn. Below it the
+	 * buttons are too small to hit and the text does not fit.
+	 */
+	private static final float MIN_SCALE = 0.5f;
+
+	/**
+	 * The smallest text size, in pixels, that is readable on an accessory.
+	 */
+	private static final int MIN_TEXT_SIZE = 9;
+
+	/**
+	 * The height, in reference pixels, of the row a compact screen is designed
+	 * for. Fits two lines of text and the play pause button.
+	 */
+	private static final int COMPACT_ROW_HEIGHT = 40;
+
+	/**
+	 * The lowest compact screen, in pixels. Two lines of the smallest text
+	 * fit.
+	 */
+	private static final int MIN_COMPACT_HEIGHT = 24;
+
+	/**
+	 * The lowest compact screen, in pixels, that shows album art. Lower
+	 * screens only show the text.
+	 */
+	private static final int MIN_COMPACT_ART_HEIGHT = 32;
+
+	private final int mWidth;
+
+	private final int mHeight;
+
+	private final int mReferenceWidth;
+
+	private final int mReferenceHeight;
+
+	private final int mDensity;
+
+	private final float mScale;
+
+	private final boolean mIsCompact;
+
+	/**
+	 * Create screen layout.
+	 *
+	 * @param referenceWidth
+	 *            The width the design is made for.
+	 * @param referenceHeight
+	 *            The height the design is made for.
+	 * @param width
+	 *            The width of the screen.
+	 * @param height
+	 *            The height of the screen.
+	 */
+	public ScreenLayout(final int referenceWidth, final int referenceHeight, final int width, final int height) {
+		if (!isSupported(referenceWidth, referenceHeight, width, height)) {
+			throw new IllegalArgumentException("Unsupported size: " + width + "x" + height);
+		}
+		mReferenceWidth = referenceWidth;
+		mReferenceHeight = referenceHeight;
+		mWidth = width;
+		mHeight = height;
+		mIsCompact = isCompact(referenceWidth, referenceHeight, width, height);
+
+		// Round the scale to a whole density, the drawables are decoded with
+		// the same scale.
+		float scale = mIsCompact ? getScale(referenceWidth, COMPACT_ROW_HEIGHT, width, height) : getScale(referenceWidth, referenceHeight, width, height);
+		mDensity = Math.max(1, Math.round(DisplayMetrics.DENSITY_DEFAULT * scale));
+		mScale = (float) mDensity / DisplayMetrics.DENSITY_DEFAULT;
+	}
+
+	/**
+	 * Check if a screen can be laid out, that is if the design is not scaled
+	 * below the smallest scale that can be drawn, or if the screen can be laid
+	 * out as a compact screen.
+	 *
+	 * @param referenceWidth
+	 *            The width the design is made for.
+	 * @param referenceHeight
+	 *            The height the design is made for.
+	 * @param width
+	 *            The width of the screen.
+	 * @param height
+	 *            The height of the screen.
+	 * @return True if supported.
+	 */
+	public static boolean isSupported(int referenceWidth, int referenceHeight, int width, int height) {
+		return width > 0 && height > 0 && (getScale(referenceWidth, referenceHeight, width, height) >= MIN_SCALE || isCompact(referenceWidth, referenceHeight, width, height));
+	}
+
+	/**
+	 * Check if a screen is laid out as a compact screen, that is if it is too
+	 * low for the design but wide enough and high enough for a compact row.
+	 */
+	private static boolean isCompact(int referenceWidth, int referenceHeight, int width, int height) {
+		return getScale(referenceWidth, referenceHeight, width, height) < MIN_SCALE && (float) width / referenceWidth >= MIN_SCALE && height >= MIN_COMPACT_HEIGHT;
+	}
+
+	/**
+	 * Get the largest scale of the design that fits the screen.
+	 */
+	private static float getScale(int referenceWidth, int referenceHeight, int width, int height) {
+		return Math.min((float) width / referenceWidth, (float) height / referenceHeight);
+	}
+
+	/**
+	 * Get the layout of the control screen of an accessory.
+	 *
+	 * @param context
+	 *            The context.
+	 * @param hostAppPackageName
+	 *            The package name of the host application.
+	 * @param referenceWidth
+	 *            The width the design is made for.
+	 * @param referenceHeight
+	 *            The height the design is made for.
+	 * @return The layout. The reference size if the display is not known.
+	 */
+	public static ScreenLayout getControlLayout(Context context, String hostAppPackageName, int referenceWidth, int referenceHeight) {
+		return getControlLayout(getDevice(context, hostAppPackageName), referenceWidth, referenceHeight);
+	}
+
+	/**
+	 * Get the layouts of the control screens of all registered accessories.
+	 *
+	 * @param context
+	 *            The context.
+	 * @param referenceWidth
+	 *            The width the design is made for.
+	 * @param referenceHeight
+	 *            The height the design is made for.
+	 * @return The layouts, one for each host application. Empty if no
+	 *         accessory is registered.
+	 */
+	public static List<ScreenLayout> getControlLayouts(Context context, int referenceWidth, int referenceHeight) {
+		List<DeviceInfo> devices = getDevices(context);
+		List<ScreenLayout> layouts = new ArrayList<ScreenLayout>(devices.size());
+		for (DeviceInfo device : devices) {
+			layouts.add(getControlLayout(device, referenceWidth, referenceHeight));
+		}
+		return layouts;
+	}
+
+	private static ScreenLayout getControlLayout(DeviceInfo device, int referenceWidth, int referenceHeight) {
+		int width = referenceWidth;
+		int height = referenceHeight;
+		if (device != null) {
+			List<DisplayInfo> displays = device.getDisplays();
+			if (displays != null && !displays.isEmpty() && isSupported(referenceWidth, referenceHeight, displays.get(0).getWidth(), displays.get(0).getHeight())) {
+				width = displays.get(0).getWidth();
+				height = displays.get(0).getHeight();
+			}
+		}
+		Dbg.d("Control layout: " + width + "x" + height);
+		return new ScreenLayout(referenceWidth, referenceHeight, width, height);
+	}
+
+	/**
+	 * Get the layout of the widget of an accessory.
+	 *
+	 * @param context
+	 *            The context.
+	 * @param hostAppPackageName
+	 *            The package name of the host application.
+	 * @param referenceWidth
+	 *            The width the design is made for.
+	 * @param referenceHeight
+	 *            The height the design is made for.
+	 * @return The layout. The reference size if the widget size is not known.
+	 */
+	public static ScreenLayout getWidgetLayout(Context context, String hostAppPackageName, int referenceWidth, int referenceHeight) {
+		return getWidgetLayout(getDevice(context, hostAppPackageName), referenceWidth, referenceHeight);
+	}
+
+	/**
+	 * Get the layouts of the widgets of all registered accessories.
+	 *
+	 * @param context
+	 *            The context.
+	 * @param referenceWidth
+	 *            The width the design is made for.
+	 * @param referenceHeight
+	 *            The height the design is made for.
+	 * @return The layouts, one for each host application. Empty if no
+	 *         accessory is registered.
+	 */
+	public static List<ScreenLayout> getWidgetLayouts(Context context, int referenceWidth, int referenceHeight) {
+		List<DeviceInfo> devices = getDevices(context);
+		List<ScreenLayout> layouts = new ArrayList<ScreenLayout>(devices.size());
+		for (DeviceInfo device : devices) {
+			layouts.add(getWidgetLayout(device, referenceWidth, referenceHeight));
+		}
+		return layouts;
+	}
+
+	private static ScreenLayout getWidgetLayout(DeviceInfo device, int referenceWidth, int referenceHeight) {
+		int width = referenceWidth;
+		int height = referenceHeight;
+		if (device != null && isSupported(referenceWidth, referenceHeight, device.getWidgetWidth(), device.getWidgetHeight())) {
+			width = device.getWidgetWidth();
+			height = device.getWidgetHeight();
+		}
+		Dbg.d("Widget layout: " + width + "x" + height);
+		return new ScreenLayout(referenceWidth, referenceHeight, width, height);
+	}
+
+	/**
+	 * Get the accessory of a host application, from its registration info.
+	 */
+	private static DeviceInfo getDevice(Context context, String hostAppPackageName) {
+		try {
+			return getDevice(RegistrationAdapter.getHostApplication(context, hostAppPackageName));
+		} catch (RuntimeException e) {
+			Dbg.e("Failed to read device info", e);
+		}
+		return null;
+	}
+
+	/**
+	 * Get the accessories of all host applications, from the registration
+	 * info.
+	 */
+	private static List<DeviceInfo> getDevices(Context context) {
+		List<DeviceInfo> devices = new ArrayList<DeviceInfo>();
+		try {
+			List<HostApplicationInfo> hostApps = RegistrationAdapter.getHostApplications(context);
+			if (hostApps != null) {
+				for (HostApplicationInfo hostApp : hostApps) {
+					DeviceInfo device = getDevice(hostApp);
+					if (device != null) {
+						devices.add(device);
+					}
+				}
+			}
+		} catch (RuntimeException e) {
+			Dbg.e("Failed to read device info", e);
+		}
+		return devices;
+	}
+
+	/**
+	 * Get the accessory of a host application. An extension is laid out for
+	 * the first accessory.
+	 */
+	private static DeviceInfo getDevice(HostApplicationInfo hostApp) {
+		if (hostApp != null) {
+			List<DeviceInfo> devices = hostApp.getDevices();
+			if (devices != null && !devices.isEmpty()) {
+				return devices.get(0);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Get the width of the screen.
+	 *
+	 * @return The width.
+	 */
+	public int getWidth() {
+		return mWidth;
+	}
+
+	/**
+	 * Get the height of the screen.
+	 *
+	 * @return The height.
+	 */
+	public int getHeight() {
+		return mHeight;
+	}
+
+	/**
+	 * Check if the screen is laid out as a single compact row. The positions
+	 * of the design along the height do not apply to a compact screen.
+	 *
+	 * @return True if compact.
+	 */
+	public boolean isCompact() {
+		return mIsCompact;
+	}
+
+	/**
+	 * Get the square at the left of a compact screen in which the album art is
+	 * shown.
+	 *
+	 * @return The square. Empty if the screen is not compact, or too low to
+	 *         show album art.
+	 */
+	public Rect getCompactArtRect() {
+		if (!mIsCompact || mHeight < MIN_COMPACT_ART_HEIGHT) {
+			return new Rect();
+		}
+		return new Rect(0, 0, mHeight, mHeight);
+	}
+
+	/**
+	 * Get the density the drawables are decoded with.
+	 *
+	 * @return The density.
+	 */
+	public int getDensity() {
+		return mDensity;
+	}
+
+	/**
+	 * Scale a size of the design.
+	 *
+	 * @param size
+	 *            The size in reference pixels.
+	 * @return The size in screen pixels.
+	 */
+	public int scale(int size) {
+		return Math.round(size * mScale);
+	}
+
+	/**
+	 * Scale a text size of the design. Text is not made smaller than the
+	 * smallest readable size, unless the design uses a smaller size.
+	 *
+	 * @param size
+	 *            The text size in reference pixels.
+	 * @return The text size in screen pixels.
+	 */
+	public int scaleText(int size) {
+		return Math.max(scale(size), Math.min(size, MIN_TEXT_SIZE));
+	}
+
+	/**
+	 * Map an x position of the design, keeping its distance to the center of
+	 * the screen.
+	 *
+	 * @param x
+	 *            The x position in reference pixels.
+	 * @return The x position on the screen.
+	 */
+	public int centerX(int x) {
+		return mWidth / 2 + scale(x - mReferenceWidth / 2);
+	}
+
+	/**
+	 * Map a y position of the design, keeping its distance to the center of
+	 * the screen.
+	 *
+	 * @param y
+	 *            The y position in reference pixels.
+	 * @return The y position on the screen.
+	 */
+	public int centerY(int y) {
+		return mHeight / 2 + scale(y - mReferenceHeight / 2);
+	}
+
+	/**
+	 * Map a rectangle of the design, keeping the distance of each side to the
+	 * nearest edge of the screen.
+	 *
+	 * @param rect
+	 *            The rectangle in reference pixels.
+	 * @return The rectangle on the screen.
+	 */
+	public Rect anchor(Rect rect) {
+		return new Rect(anchorX(rect.left), anchorY(rect.top), anchorX(rect.right), anchorY(rect.bottom));
+	}
+
+	private int anchorX(int x) {
+		return x <= mReferenceWidth / 2 ? scale(x) : mWidth - scale(mReferenceWidth - x);
+	}
+
+	private int anchorY(int y) {
+		return y <= mReferenceHeight / 2 ? scale(y) : mHeight - scale(mReferenceHeight - y);
+	}
+
+	/**
+	 * Get the centered part of an image that has the aspect ratio of a
+	 * destination, so that the image is drawn in the destination without
+	 * being stretched. The parts of the image outside it are cropped.
+	 *
+	 * @param imageWidth
+	 *            The width of the image.
+	 * @param imageHeight
+	 *            The height of the image.
+	 * @param dest
+	 *            The destination.
+	 * @param source
+	 *            Set to the part of the image to draw.
+	 */
+	public static void centerCrop(int imageWidth, int imageHeight, Rect dest, Rect source) {
+		// Compare the aspect ratios without dividing.
+		long imageAspect = (long) imageWidth * dest.height();
+		long destAspect = (long) imageHeight * dest.width();
+		if (imageAspect > destAspect) {
+			// Wider than the destination, crop the sides.
+			int width = (int) (destAspect / dest.height());
+			int left = (imageWidth - width) / 2;
+			source.set(left, 0, left + width, imageHeight);
+		} else {
+			// Taller than the destination, crop the top and bottom.
+			int height = (int) (imageAspect / dest.width());
+			int top = (imageHeight - height) / 2;
+			source.set(0, top, imageWidth, top + height);
+		}
+	}
+
+}
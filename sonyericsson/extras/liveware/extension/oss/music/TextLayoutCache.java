@@ -0,0 +1,133 @@
+package com.sonyericsson.extras.liveware.extension.oss.music;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.text.TextPaint;
+import android.text.TextUtils;
+
+import com.sonyericsson.extras.liveware.extension.util.Dbg;
+
+/**
+ * The text layout cache keeps the ellipsized texts drawn by an extension, so
+ * that drawing the same track info again does not measure the text. Measuring
+ * is noticeable for long texts and for scripts such as Chinese and Japanese.
+ */
+class TextLayoutCache {
+
+	private static final int MAX_ENTRIES = 16;
+
+	private final LinkedHashMap<Key, String> mLayouts = new LinkedHashMap<Key, String>(MAX_ENTRIES, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, String> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+
+	/**
+	 * Key used for lookups, so that a cache hit does not allocate a key.
+	 */
+	private final Key mLookupKey = new Key();
+
+	private int mHitCount = 0;
+
+	private int mMissCount = 0;
+
+	/**
+	 * Draw a text, ellipsized to a max width.
+	 *
+	 * @param canvas
+	 *            The canvas to draw in.
+	 * @param text
+	 *            The text.
+	 * @param x
+	 *            The x position, interpreted according to the alignment of the
+	 *            paint.
+	 * @param y
+	 *            The y position of the baseline.
+	 * @param paint
+	 *            The paint to draw with.
+	 * @param maxWidth
+	 *            The max width of the text.
+	 */
+	public void drawText(Canvas canvas, String text, float x, float y, TextPaint paint, int maxWidth) {
+		canvas.drawText(getEllipsized(text, paint, maxWidth), x, y, paint);
+	}
+
+	/**
+	 * Drop all cached layouts.
+	 */
+	public void clear() {
+		mLayouts.clear();
+	}
+
+	private String getEllipsized(String text, TextPaint paint, int maxWidth) {
+		mLookupKey.set(text, paint, maxWidth);
+		String ellipsized = mLayouts.get(mLookupKey);
+		if (ellipsized != null) {
+			mHitCount++;
+			return ellipsized;
+		}
+		mMissCount++;
+
+		ellipsized = TextUtils.ellipsize(text, paint, maxWidth, TextUtils.TruncateAt.END).toString();
+		Key key = new Key();
+		key.set(text, paint, maxWidth);
+		mLayouts.put(key, ellipsized);
+		Dbg.v("Text layout cache: " + mLayouts.size() + " entries, hits: " + mHitCount + " misses: " + mMissCount);
+		return ellipsized;
+	}
+
+	/**
+	 * The text and the paint properties that affect the layout.
+	 */
+	private static final class Key {
+
+		private String mText;
+
+		private float mTextSize;
+
+		private int mColor;
+
+		private int mMaxWidth;
+
+		private Paint.Align mAlign;
+
+		public void set(String text, Paint paint, int maxWidth) {
+			mText = text;
+			mTextSize = paint.getTextSize();
+			mColor = paint.getColor();
+			mMaxWidth = maxWidth;
+			mAlign = paint.getTextAlign();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) o;
+			return mTextSize == other.mTextSize && mColor == other.mColor && mMaxWidth == other.mMaxWidth && mAlign == other.mAlign && mText.equals(other.mText);
+		}
+
+		@Override
+		public int hashCode() {
+			int result = 17;
+			result = 31 * result + mText.hashCode();
+			result = 31 * result + Float.floatToIntBits(mTextSize);
+			result = 31 * result + mColor;
+			result = 31 * result + mMaxWidth;
+			result = 31 * result + mAlign.hashCode();
+			return result;
+		}
+	}
+
+}
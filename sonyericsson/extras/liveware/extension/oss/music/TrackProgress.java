@@ -0,0 +1,102 @@
+package com.sonyericsson.extras.liveware.extension.oss.music;
+
+import android.os.SystemClock;
+
+/**
+ * The track progress keeps the playback position of the current track
+ * without asking the playback service for it. The position is read when the
+ * playback state changes, and while playing it is extrapolated from a
+ * monotonic clock.
+ */
+class TrackProgress {
+
+	private long mPosition = -1;
+
+	private long mDuration = -1;
+
+	private boolean mIsPlaying = false;
+
+	private long mSyncTime = 0;
+
+	/**
+	 * Set the position read from the playback service.
+	 *
+	 * @param position
+	 *            The position in milliseconds, or -1 if not known.
+	 * @param duration
+	 *            The duration in milliseconds, or -1 if not known.
+	 * @param isPlaying
+	 *            True if the track is playing.
+	 */
+	public void sync(long position, long duration, boolean isPlaying) {
+		mPosition = position;
+		mDuration = duration;
+		mIsPlaying = isPlaying;
+		mSyncTime = SystemClock.elapsedRealtime();
+	}
+
+	/**
+	 * Forget the position.
+	 */
+	public void clear() {
+		sync(-1, -1, false);
+	}
+
+	/**
+	 * Check if the progress is known.
+	 *
+	 * @return True if both the position and the duration are known.
+	 */
+	public boolean isKnown() {
+		return mPosition >= 0 && mDuration > 0;
+	}
+
+	/**
+	 * Check if the position is moving.
+	 *
+	 * @return True if the progress is known and the track is playing.
+	 */
+	public boolean isMoving() {
+		return mIsPlaying && isKnown();
+	}
+
+	/**
+	 * Get the duration.
+	 *
+	 * @return The duration in milliseconds, or -1 if not known.
+	 */
+	public long getDuration() {
+		return mDuration;
+	}
+
+	/**
+	 * Get the current position.
+	 *
+	 * @return The position in milliseconds, or -1 if not known.
+	 */
+	public long getPosition() {
+		if (!isKnown()) {
+			return -1;
+		}
+		long position = mPosition;
+		if (mIsPlaying) {
+			position += SystemClock.elapsedRealtime() - mSyncTime;
+		}
+		return Math.min(position, mDuration);
+	}
+
+	/**
+	 * Get the progress scaled to a length, such as the width of a bar.
+	 *
+	 * @param length
+	 *            The length of the complete track.
+	 * @return The length played, or -1 if not known.
+	 */
+	public int getProgress(int length) {
+		if (!isKnown()) {
+			return -1;
+		}
+		return (int) (getPosition() * length / mDuration);
+	}
+
+}
@@ -0,0 +1,72 @@
+package com.sonyericsson.extras.liveware.extension.oss.music;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.RectF;
+import android.util.DisplayMetrics;
+
+/**
+ * The volume bar renders the volume bar of the control once per volume level,
+ * so that a volume change only has to copy a small pre-rendered strip.
+ */
+class VolumeBar {
+
+	private final ResourceAtlas mResourceAtlas;
+
+	private final int mWidth;
+
+	private final int mHeight;
+
+	private final Bitmap[] mStrips;
+
+	/**
+	 * Create volume bar.
+	 *
+	 * @param resourceAtlas
+	 *            The atlas holding the volume bar drawables.
+	 * @param width
+	 *            The width of the volume bar.
+	 * @param height
+	 *            The height of the volume bar.
+	 * @param maxVolume
+	 *            The max volume level.
+	 */
+	public VolumeBar(final ResourceAtlas resourceAtlas, final int width, final int height, final int maxVolume) {
+		mResourceAtlas = resourceAtlas;
+		mWidth = width;
+		mHeight = height;
+		mStrips = new Bitmap[Math.max(maxVolume, 0) + 1];
+	}
+
+	/**
+	 * Get the volume bar for a volume level. Each level is rendered the first
+	 * time it is used.
+	 *
+	 * @param volume
+	 *            The volume level.
+	 * @return The volume bar. Shared, must not be modified.
+	 */
+	public Bitmap getStrip(int volume) {
+		int maxVolume = mStrips.length - 1;
+		int level = Math.max(0, Math.min(volume, maxVolume));
+		if (mStrips[level] == null) {
+			mStrips[level] = render(level, maxVolume);
+		}
+		return mStrips[level];
+	}
+
+	private Bitmap render(int volume, int maxVolume) {
+		Bitmap strip = Bitmap.createBitmap(mWidth, mHeight, Bitmap.Config.ARGB_8888);
+		strip.setDensity(DisplayMetrics.DENSITY_DEFAULT);
+		Canvas canvas = new Canvas(strip);
+
+		int volumeOnLength = maxVolume > 0 ? mWidth * volume / maxVolume : 0;
+		RectF volumeOnRect = new RectF(0, 0, volumeOnLength, mHeight);
+		canvas.drawBitmap(mResourceAtlas.getBitmap(R.drawable.music_volume_on_icn), null, volumeOnRect, null);
+
+		RectF volumeOffRect = new RectF(volumeOnLength, 0, mWidth, mHeight);
+		canvas.drawBitmap(mResourceAtlas.getBitmap(R.drawable.music_volume_off_icn), null, volumeOffRect, null);
+		return strip;
+	}
+
+}
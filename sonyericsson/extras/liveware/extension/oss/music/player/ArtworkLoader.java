@@ -0,0 +1,140 @@
+package com.sonyericsson.extras.liveware.extension.oss.music.player;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Process;
+
+import com.android.music.MusicUtils;
+import com.sonyericsson.extras.liveware.extension.util.Dbg;
+
+/**
+ * The artwork loader opens and decodes album art on a background thread so
+ * that the content provider I/O and decoding never blocks the main thread.
+ * Results are delivered on the thread that created the loader.
+ */
+public class ArtworkLoader {
+
+	/**
+	 * Callback for loaded artwork.
+	 */
+	public interface Callback {
+
+		/**
+		 * Artwork has been loaded.
+		 *
+		 * @param audioId
+		 *            The audio id the artwork was loaded for.
+		 * @param albumId
+		 *            The album id the artwork was loaded for.
+		 * @param artwork
+		 *            The artwork, or the default artwork if the track has no
+		 *            artwork.
+		 */
+		public void onArtworkLoaded(long audioId, long albumId, Bitmap artwork);
+	}
+
+	/**
+	 * All loaders share one background thread, decoding several images in
+	 * parallel would only compete for the same resources.
+	 */
+	private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(final Runnable runnable) {
+			Thread thread = new Thread(new Runnable() {
+				public void run() {
+					Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+					runnable.run();
+				}
+			}, "ArtworkLoader");
+			return thread;
+		}
+	});
+
+	/**
+	 * Number of loads that have not yet completed.
+	 */
+	private static final AtomicInteger sPendingLoads = new AtomicInteger();
+
+	private final Context mContext;
+
+	private final Handler mHandler = new Handler();
+
+	/**
+	 * Create artwork loader. Must be created on a thread with a looper.
+	 *
+	 * @param context
+	 *            The context.
+	 */
+	public ArtworkLoader(final Context context) {
+		if (context == null) {
+			throw new IllegalArgumentException("context == null");
+		}
+		mContext = context;
+	}
+
+	/**
+	 * Run a task on the artwork background thread.
+	 *
+	 * @param task
+	 *            The task.
+	 */
+	static void execute(Runnable task) {
+		sExecutor.execute(task);
+	}
+
+	/**
+	 * Check if artwork requested for display is being loaded. Background work
+	 * that is not urgent should wait while busy.
+	 *
+	 * @return True if a load has not yet completed.
+	 */
+	public static boolean isBusy() {
+		return sPendingLoads.get() > 0;
+	}
+
+	/**
+	 * Load artwork in the background.
+	 *
+	 * @param audioId
+	 *            The audio id.
+	 * @param albumId
+	 *            The album id.
+	 * @param path
+	 *            The path of the track file if known. May be null.
+	 * @param width
+	 *            The requested width, see
+	 *            {@link MusicUtils#getArtwork(Context, long, long, String, int, int, boolean)}.
+	 * @param height
+	 *            The requested height.
+	 * @param callback
+	 *            The callback to call when the artwork is loaded.
+	 */
+	public void load(final long audioId, final long albumId, final String path, final int width, final int height, final Callback callback) {
+		sPendingLoads.incrementAndGet();
+		sExecutor.execute(new Runnable() {
+			public void run() {
+				Bitmap artwork = null;
+				try {
+					artwork = MusicUtils.getArtwork(mContext, audioId, albumId, path, width, height, true);
+				} catch (RuntimeException e) {
+					Dbg.e("Failed to load artwork", e);
+				} finally {
+					sPendingLoads.decrementAndGet();
+				}
+
+				final Bitmap result = artwork;
+				mHandler.post(new Runnable() {
+					public void run() {
+						callback.onArtworkLoaded(audioId, albumId, result);
+					}
+				});
+			}
+		});
+	}
+
+}
@@ -0,0 +1,138 @@
+package com.sonyericsson.extras.liveware.extension.oss.music.player;
+
+import android.content.Context;
+
+import com.android.music.MusicUtils;
+import com.sonyericsson.extras.liveware.extension.util.Dbg;
+
+/**
+ * The artwork prefetcher warms the artwork caches for the tracks that are
+ * likely to be played next, so that changing track can be rendered from
+ * already decoded data. If the playback service knows the play queue the next
+ * tracks in the queue are prefetched, at every size album art has been shown
+ * in, so that both the widget and the control are warm. Without a queue the
+ * next track is not known and nothing is prefetched. The play queue is read
+ * on the artwork background thread, since reading it may be IPC.
+ */
+public class ArtworkPrefetcher {
+
+	/**
+	 * Number of tracks after the current track in the queue to prefetch.
+	 */
+	private static final int QUEUE_LOOKAHEAD = 2;
+
+	/**
+	 * Max number of album art sizes to prefetch. When full, the oldest size
+	 * is replaced.
+	 */
+	private static final int MAX_SIZES = 4;
+
+	/**
+	 * The sizes album art has been shown in, by any extension, as width and
+	 * height pairs. Guarded by the array.
+	 */
+	private static final int[] sSizes = new int[2 * MAX_SIZES];
+
+	private static int sSizeCount = 0;
+
+	private static int sNextSize = 0;
+
+	private final Context mContext;
+
+	private final MediaIndex mMediaIndex;
+
+	/**
+	 * Create artwork prefetcher.
+	 *
+	 * @param context
+	 *            The context.
+	 */
+	public ArtworkPrefetcher(final Context context) {
+		if (context == null) {
+			throw new IllegalArgumentException("context == null");
+		}
+		mContext = context;
+		mMediaIndex = MediaIndex.getInstance(context);
+	}
+
+	/**
+	 * The current track has changed. Starts prefetching the tracks likely to
+	 * be played next. Does not call the playback service on the calling
+	 * thread.
+	 *
+	 * @param playbackService
+	 *            The playback service, used to read the play queue.
+	 * @param width
+	 *            The width album art is shown in by the caller.
+	 * @param height
+	 *            The height album art is shown in by the caller.
+	 */
+	public void onTrackChanged(final PlaybackService playbackService, int width, int height) {
+		addSize(width, height);
+		if (playbackService == null) {
+			return;
+		}
+
+		ArtworkLoader.execute(new Runnable() {
+			public void run() {
+				prefetch(playbackService);
+			}
+		});
+	}
+
+	/**
+	 * Remember a size album art is shown in.
+	 */
+	private static void addSize(int width, int height) {
+		synchronized (sSizes) {
+			for (int i = 0; i < sSizeCount; i++) {
+				if (sSizes[2 * i] == width && sSizes[2 * i + 1] == height) {
+					return;
+				}
+			}
+			sSizes[2 * sNextSize] = width;
+			sSizes[2 * sNextSize + 1] = height;
+			sNextSize = (sNextSize + 1) % MAX_SIZES;
+			if (sSizeCount < MAX_SIZES) {
+				sSizeCount++;
+			}
+		}
+	}
+
+	/**
+	 * Prefetch artwork for the next tracks in the queue. Called on the artwork
+	 * background thread.
+	 */
+	private void prefetch(PlaybackService playbackService) {
+		int[] queue = playbackService.getQueue();
+		int position = playbackService.getQueuePosition();
+		if (queue == null || position < 0 || position >= queue.length) {
+			return;
+		}
+
+		int[] sizes;
+		int sizeCount;
+		synchronized (sSizes) {
+			sizes = sSizes.clone();
+			sizeCount = sSizeCount;
+		}
+
+		for (int i = position + 1; i < queue.length && i <= position + QUEUE_LOOKAHEAD; i++) {
+			long audioId = queue[i];
+			long albumId = mMediaIndex.getAlbumId(audioId);
+			for (int j = 0; j < sizeCount; j++) {
+				int width = sizes[2 * j];
+				int height = sizes[2 * j + 1];
+				if (MusicUtils.getCachedArtwork(audioId, albumId, width, height) == null) {
+					Dbg.v("Prefetching artwork for " + audioId);
+					try {
+						MusicUtils.getArtwork(mContext, audioId, albumId, width, height, false);
+					} catch (RuntimeException e) {
+						Dbg.e("Failed to prefetch artwork", e);
+					}
+				}
+			}
+		}
+	}
+
+}
@@ -262,4 +262,84 @@ public class GenericPlaybackService extends PlaybackService {
 		return result;
 	}
 
+	@Override
+	public int[] getQueue() {
+		int[] result = null;
+		try {
+			if (mManager != null) {
+				result = mManager.getQueue();
+			}
+		} catch (Exception e) {
+			Dbg.e(TAG + "Failed to get queue", e);
+		} catch (NoSuchMethodError e) {
+			Dbg.e(TAG + "Failed to get queue", e);
+		}
+
+		return result;
+	}
+
+	@Override
+	public int getQueuePosition() {
+		int result = -1;
+		try {
+			if (mManager != null) {
+				result = mManager.getQueuePosition();
+			}
+		} catch (Exception e) {
+			Dbg.e(TAG + "Failed to get queue position", e);
+		} catch (NoSuchMethodError e) {
+			Dbg.e(TAG + "Failed to get queue position", e);
+		}
+
+		return result;
+	}
+
+	@Override
+	public long getPosition() {
+		long result = -1;
+		try {
+			if (mManager != null) {
+				result = mManager.position();
+			}
+		} catch (Exception e) {
+			Dbg.e(TAG + "Failed to get position", e);
+		} catch (NoSuchMethodError e) {
+			Dbg.e(TAG + "Failed to get position", e);
+		}
+
+		return result;
+	}
+
+	@Override
+	public long getDuration() {
+		long result = -1;
+		try {
+			if (mManager != null) {
+				result = mManager.duration();
+			}
+		} catch (Exception e) {
+			Dbg.e(TAG + "Failed to get duration", e);
+		} catch (NoSuchMethodError e) {
+			Dbg.e(TAG + "Failed to get duration", e);
+		}
+
+		return result;
+	}
+
+	@Override
+	public String getPath() {
+		String result = null;
+		try {
+			if (mManager != null) {
+				result = mManager.getPath();
+			}
+		} catch (Exception e) {
+			Dbg.e(TAG + "Failed to get path", e);
+		} catch (NoSuchMethodError e) {
+			Dbg.e(TAG + "Failed to get path", e);
+		}
+
+		return result;
+	}
+
 }
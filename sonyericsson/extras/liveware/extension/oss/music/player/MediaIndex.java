@@ -0,0 +1,377 @@
+package com.sonyericsson.extras.liveware.extension.oss.music.player;
+
+import java.util.Arrays;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.provider.MediaStore;
+
+import com.sonyericsson.extras.liveware.extension.util.Dbg;
+
+/**
+ * The media index holds the album id, title, artist and album of every track
+ * in the MediaStore, so that metadata that is missing from media intents can
+ * be looked up in memory instead of querying the content provider. The index
+ * is loaded with one query on a low priority thread of its own, so that it
+ * never delays the loading of album art, and is updated with the tracks
+ * added or modified when the MediaStore changes. Deleted tracks are removed
+ * by comparing the audio ids of the index with those in the MediaStore. The
+ * tracks are kept in an open addressing hash table with the audio id as key
+ * and the metadata in parallel arrays, so no object is allocated per track
+ * except the strings.
+ */
+public class MediaIndex {
+
+	private static final long EMPTY = -1;
+
+	private static final int MIN_CAPACITY = 256;
+
+	/**
+	 * Time to wait for more changes before updating the index.
+	 */
+	private static final long UPDATE_DELAY_MS = 2000;
+
+	private static final String[] ID_PROJECTION = new String[] { MediaStore.Audio.Media._ID };
+
+	private static final String[] PROJECTION = new String[] { MediaStore.Audio.Media._ID, MediaStore.Audio.Media.ALBUM_ID, MediaStore.Audio.Media.TITLE,
+			MediaStore.Audio.Media.ARTIST, MediaStore.Audio.Media.ALBUM, MediaStore.Audio.Media.DATE_ADDED, MediaStore.Audio.Media.DATE_MODIFIED };
+
+	private static MediaIndex sInstance = null;
+
+	private final Context mContext;
+
+	private final Handler mHandler;
+
+	private long[] mAudioIds;
+
+	private long[] mAlbumIds;
+
+	private String[] mTitles;
+
+	private String[] mArtists;
+
+	private String[] mAlbums;
+
+	private int mSize = 0;
+
+	/**
+	 * The latest added and modified times of the indexed tracks, in seconds.
+	 * Tracks added or modified after these are read when the MediaStore
+	 * changes.
+	 */
+	private long mMaxDateAdded = 0;
+
+	private long mMaxDateModified = 0;
+
+	private boolean mIsLoaded = false;
+
+	private final Runnable mUpdateTask = new Runnable() {
+		public void run() {
+			load(true);
+			removeDeleted();
+		}
+	};
+
+	/**
+	 * Get the media index. The index is loaded in the background the first
+	 * time. Must be called from the main thread.
+	 *
+	 * @param context
+	 *            The context.
+	 * @return The media index.
+	 */
+	public static synchronized MediaIndex getInstance(final Context context) {
+		if (context == null) {
+			throw new IllegalArgumentException("context == null");
+		}
+		if (sInstance == null) {
+			sInstance = new MediaIndex(context.getApplicationContext());
+			sInstance.start();
+		}
+		return sInstance;
+	}
+
+	private MediaIndex(final Context context) {
+		mContext = context;
+		allocate(MIN_CAPACITY);
+
+		HandlerThread thread = new HandlerThread("MediaIndex", Process.THREAD_PRIORITY_LOWEST);
+		thread.start();
+		mHandler = new Handler(thread.getLooper());
+	}
+
+	private void start() {
+		mContext.getContentResolver().registerContentObserver(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, true, new ContentObserver(mHandler) {
+			@Override
+			public void onChange(boolean selfChange) {
+				// The MediaStore sends many changes while scanning, so wait
+				// for the changes to settle.
+				mHandler.removeCallbacks(mUpdateTask);
+				mHandler.postDelayed(mUpdateTask, UPDATE_DELAY_MS);
+			}
+		});
+
+		mHandler.post(new Runnable() {
+			public void run() {
+				load(false);
+			}
+		});
+	}
+
+	/**
+	 * Check if the index has been loaded.
+	 *
+	 * @return True if loaded.
+	 */
+	public synchronized boolean isLoaded() {
+		return mIsLoaded;
+	}
+
+	/**
+	 * Get the album id of a track.
+	 *
+	 * @param audioId
+	 *            The audio id.
+	 * @return The album id, or {@link PlaybackService#INVALID_ALBUM_ID} if the
+	 *         track is not known.
+	 */
+	public synchronized long getAlbumId(long audioId) {
+		int slot = find(audioId);
+		return slot >= 0 ? mAlbumIds[slot] : PlaybackService.INVALID_ALBUM_ID;
+	}
+
+	/**
+	 * Get the title of a track.
+	 *
+	 * @param audioId
+	 *            The audio id.
+	 * @return The title, or null if the track is not known.
+	 */
+	public synchronized String getTitle(long audioId) {
+		int slot = find(audioId);
+		return slot >= 0 ? mTitles[slot] : null;
+	}
+
+	/**
+	 * Get the artist of a track.
+	 *
+	 * @param audioId
+	 *            The audio id.
+	 * @return The artist, or null if the track is not known.
+	 */
+	public synchronized String getArtist(long audioId) {
+		int slot = find(audioId);
+		return slot >= 0 ? mArtists[slot] : null;
+	}
+
+	/**
+	 * Get the album of a track.
+	 *
+	 * @param audioId
+	 *            The audio id.
+	 * @return The album, or null if the track is not known.
+	 */
+	public synchronized String getAlbum(long audioId) {
+		int slot = find(audioId);
+		return slot >= 0 ? mAlbums[slot] : null;
+	}
+
+	/**
+	 * Load tracks from the MediaStore. Called on the index thread.
+	 *
+	 * @param changesOnly
+	 *            True to only load tracks added or modified since the last
+	 *            load.
+	 */
+	private void load(boolean changesOnly) {
+		String selection = null;
+		String[] selectionArgs = null;
+		if (changesOnly) {
+			synchronized (this) {
+				selection = MediaStore.Audio.Media.DATE_ADDED + ">? OR " + MediaStore.Audio.Media.DATE_MODIFIED + ">?";
+				selectionArgs = new String[] { String.valueOf(mMaxDateAdded), String.valueOf(mMaxDateModified) };
+			}
+		}
+
+		Cursor cursor = null;
+		try {
+			cursor = mContext.getContentResolver().query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, PROJECTION, selection, selectionArgs, null);
+			if (cursor == null) {
+				return;
+			}
+
+			// Read all rows before locking, so that lookups are not blocked
+			// while the cursor is filled.
+			int count = cursor.getCount();
+			long[] audioIds = new long[count];
+			long[] albumIds = new long[count];
+			String[] titles = new String[count];
+			String[] artists = new String[count];
+			String[] albums = new String[count];
+			long maxDateAdded = 0;
+			long maxDateModified = 0;
+			for (int i = 0; i < count && cursor.moveToNext(); i++) {
+				audioIds[i] = cursor.getLong(0);
+				albumIds[i] = cursor.getLong(1);
+				titles[i] = cursor.getString(2);
+				artists[i] = cursor.getString(3);
+				albums[i] = cursor.getString(4);
+				maxDateAdded = Math.max(maxDateAdded, cursor.getLong(5));
+				maxDateModified = Math.max(maxDateModified, cursor.getLong(6));
+			}
+
+			synchronized (this) {
+				ensureCapacity(mSize + count);
+				for (int i = 0; i < count; i++) {
+					put(audioIds[i], albumIds[i], titles[i], artists[i], albums[i]);
+				}
+				mMaxDateAdded = Math.max(mMaxDateAdded, maxDateAdded);
+				mMaxDateModified = Math.max(mMaxDateModified, maxDateModified);
+				mIsLoaded = true;
+				Dbg.d("Media index has " + mSize + " tracks");
+			}
+		} catch (RuntimeException e) {
+			Dbg.e("Failed to load media index", e);
+		} finally {
+			if (cursor != null) {
+				cursor.close();
+			}
+		}
+	}
+
+	/**
+	 * Remove the tracks that are no longer in the MediaStore. Only the audio
+	 * ids are read, and the table is only rebuilt if tracks have been
+	 * deleted. Called on the index thread after the changes have been loaded.
+	 */
+	private void removeDeleted() {
+		Cursor cursor = null;
+		try {
+			cursor = mContext.getContentResolver().query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, ID_PROJECTION, null, null, null);
+			if (cursor == null) {
+				return;
+			}
+			int count = cursor.getCount();
+			synchronized (this) {
+				// All tracks in the MediaStore have been loaded, so the same
+				// number of tracks means nothing has been deleted.
+				if (count >= mSize) {
+					return;
+				}
+			}
+
+			long[] audioIds = new long[count];
+			for (int i = 0; i < count && cursor.moveToNext(); i++) {
+				audioIds[i] = cursor.getLong(0);
+			}
+			Arrays.sort(audioIds);
+
+			synchronized (this) {
+				int size = mSize;
+				long[] oldAudioIds = mAudioIds;
+				long[] albumIds = mAlbumIds;
+				String[] titles = mTitles;
+				String[] artists = mArtists;
+				String[] albums = mAlbums;
+				allocate(oldAudioIds.length);
+				for (int i = 0; i < oldAudioIds.length; i++) {
+					if (oldAudioIds[i] != EMPTY && Arrays.binarySearch(audioIds, oldAudioIds[i]) >= 0) {
+						put(oldAudioIds[i], albumIds[i], titles[i], artists[i], albums[i]);
+					}
+				}
+				Dbg.d("Media index removed " + (size - mSize) + " tracks");
+			}
+		} catch (RuntimeException e) {
+			Dbg.e("Failed to remove deleted tracks from media index", e);
+		} finally {
+			if (cursor != null) {
+				cursor.close();
+			}
+		}
+	}
+
+	/**
+	 * Find the slot of a track.
+	 *
+	 * @return The slot, or -1 if the track is not in the index.
+	 */
+	private int find(long audioId) {
+		if (audioId == EMPTY) {
+			return -1;
+		}
+		int mask = mAudioIds.length - 1;
+		int slot = hash(audioId) & mask;
+		while (mAudioIds[slot] != EMPTY) {
+			if (mAudioIds[slot] == audioId) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	private void put(long audioId, long albumId, String title, String artist, String album) {
+		if (audioId == EMPTY) {
+			return;
+		}
+		int mask = mAudioIds.length - 1;
+		int slot = hash(audioId) & mask;
+		while (mAudioIds[slot] != EMPTY && mAudioIds[slot] != audioId) {
+			slot = (slot + 1) & mask;
+		}
+		if (mAudioIds[slot] == EMPTY) {
+			mAudioIds[slot] = audioId;
+			mSize++;
+		}
+		mAlbumIds[slot] = albumId;
+		mTitles[slot] = title;
+		mArtists[slot] = artist;
+		mAlbums[slot] = album;
+	}
+
+	/**
+	 * Grow the table so that it can hold a number of tracks while staying at
+	 * most half full.
+	 */
+	private void ensureCapacity(int size) {
+		int capacity = mAudioIds.length;
+		if (size * 2 <= capacity) {
+			return;
+		}
+		while (size * 2 > capacity) {
+			capacity *= 2;
+		}
+
+		long[] audioIds = mAudioIds;
+		long[] albumIds = mAlbumIds;
+		String[] titles = mTitles;
+		String[] artists = mArtists;
+		String[] albums = mAlbums;
+		allocate(capacity);
+		for (int i = 0; i < audioIds.length; i++) {
+			if (audioIds[i] != EMPTY) {
+				put(audioIds[i], albumIds[i], titles[i], artists[i], albums[i]);
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		mAudioIds = new long[capacity];
+		Arrays.fill(mAudioIds, EMPTY);
+		mAlbumIds = new long[capacity];
+		mTitles = new String[capacity];
+		mArtists = new String[capacity];
+		mAlbums = new String[capacity];
+		mSize = 0;
+	}
+
+	private static int hash(long key) {
+		long hash = key * 0x9E3779B97F4A7C15L;
+		return (int) (hash ^ (hash >>> 32));
+	}
+
+}
@@ -33,7 +33,6 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 package com.sonyericsson.extras.liveware.extension.oss.music.player;
 
 import java.util.ArrayList;
-import java.util.Iterator;
 
 import android.content.BroadcastReceiver;
 import android.content.Context;
@@ -46,21 +45,41 @@ import android.os.Build;
 import android.preference.PreferenceManager;
 import android.text.TextUtils;
 
+import com.android.music.ArtworkKey;
 import com.android.music.MusicUtils;
+import com.sonyericsson.extras.liveware.extension.oss.music.MusicExtension;
 import com.sonyericsson.extras.liveware.extension.oss.music.R;
 import com.sonyericsson.extras.liveware.extension.util.Dbg;
 
 /**
  * The media player adapter provides a generic way to control the media player
- * regardless of which media player that is actually used.
+ * regardless of which media player that is actually used. The adapter is
+ * created and controlled on the main thread, and the playback info may also
+ * be read on the render thread. Listeners are notified on the main thread.
  */
 public class MediaPlayerAdapter {
 
 	public static final String ACTION_MEDIA_UPDATE = "com.sonyericsson.extras.liveware.extension.oss.music.player.update";
 
+	/**
+	 * Default time to wait for more media updates before the listeners are
+	 * notified.
+	 */
+	public static final int DEFAULT_UPDATE_WINDOW_MS = 150;
+
+	/**
+	 * Default max number of times per second the listeners are notified of
+	 * media updates.
+	 */
+	public static final int DEFAULT_MAX_UPDATES_PER_SECOND = 10;
+
 	private final Context mContext;
 
-	private PlaybackService mPlaybackService = null;
+	/**
+	 * Replaced on the main thread when another player is selected, so
+	 * methods that may be called on the render thread read it once.
+	 */
+	private volatile PlaybackService mPlaybackService = null;
 
 	private MediaReceiver mReceiver;
 
@@ -68,6 +87,27 @@ public class MediaPlayerAdapter {
 
 	private PreferenceListener mPreferenceListener;
 
+	private final ArtworkLoader mArtworkLoader;
+
+	private final ArtworkPrefetcher mArtworkPrefetcher;
+
+	private final MediaIndex mMediaIndex;
+
+	private final RenderScheduler mRenderScheduler;
+
+	/**
+	 * The album art key last returned, reused while the album art is the same.
+	 */
+	private volatile ArtworkKey mAlbumArtKey = null;
+
+	private ArtworkRequest mCurrentArtworkRequest = null;
+
+	private ArtworkRequest mPendingArtworkRequest = null;
+
+	private ArtworkRequest mLoadedArtworkRequest = null;
+
+	private Bitmap mLoadedArtwork = null;
+
 	/**
 	 * Create media player adapter.
 	 * 
@@ -81,6 +121,15 @@ public class MediaPlayerAdapter {
 
 		mContext = context;
 
+		mArtworkLoader = new ArtworkLoader(mContext);
+		mArtworkPrefetcher = new ArtworkPrefetcher(mContext);
+		mMediaIndex = MediaIndex.getInstance(mContext);
+		mRenderScheduler = new RenderScheduler(new Runnable() {
+			public void run() {
+				notifyUpdate();
+			}
+		}, DEFAULT_UPDATE_WINDOW_MS, DEFAULT_MAX_UPDATES_PER_SECOND);
+
 		// Start listening for media intents
 		mReceiver = new MediaReceiver();
 		mContext.registerReceiver(mReceiver, new IntentFilter(ACTION_MEDIA_UPDATE));
@@ -102,6 +151,7 @@ public class MediaPlayerAdapter {
 			mContext.unregisterReceiver(mReceiver);
 			mReceiver = null;
 		}
+		mRenderScheduler.cancel();
 
 		// Unbind with service.
 		if (mPlaybackService != null) {
@@ -213,10 +263,11 @@ public class MediaPlayerAdapter {
 	 * @return True if media player is playing.
 	 */
 	public boolean isPlaying() {
-		if (mPlaybackService == null) {
+		PlaybackService playbackService = mPlaybackService;
+		if (playbackService == null) {
 			return false;
 		}
-		return mPlaybackService.isPlaying();
+		return playbackService.isPlaying();
 	}
 
 	/**
@@ -253,8 +304,12 @@ public class MediaPlayerAdapter {
 	 */
 	public String getTitle() {
 		String track = null;
-		if (mPlaybackService != null) {
-			track = mPlaybackService.getTrackName();
+		PlaybackService playbackService = mPlaybackService;
+		if (playbackService != null) {
+			track = playbackService.getTrackName();
+		}
+		if (track == null && playbackService != null) {
+			track = mMediaIndex.getTitle(playbackService.getAudioId());
 		}
 		if (track == null) {
 			track = mContext.getString(R.string.unknown_track);
@@ -270,8 +325,12 @@ public class MediaPlayerAdapter {
 	 */
 	public String getArtist() {
 		String artist = null;
-		if (mPlaybackService != null) {
-			artist = mPlaybackService.getArtistName();
+		PlaybackService playbackService = mPlaybackService;
+		if (playbackService != null) {
+			artist = playbackService.getArtistName();
+		}
+		if (artist == null && playbackService != null) {
+			artist = mMediaIndex.getArtist(playbackService.getAudioId());
 		}
 		if (artist == null) {
 			artist = mContext.getString(R.string.unknown_artist);
@@ -280,31 +339,231 @@ public class MediaPlayerAdapter {
 		return artist;
 	}
 
+	/**
+	 * Get the playback position in the current track. Reads the position from
+	 * the playback service, so it should only be called when the playback
+	 * state changes.
+	 * 
+	 * @return The position in milliseconds or -1 if not known.
+	 */
+	public long getPosition() {
+		PlaybackService playbackService = mPlaybackService;
+		if (playbackService == null) {
+			return -1;
+		}
+		return playbackService.getPosition();
+	}
+
+	/**
+	 * Get the duration of the current track.
+	 * 
+	 * @return The duration in milliseconds or -1 if not known.
+	 */
+	public long getDuration() {
+		PlaybackService playbackService = mPlaybackService;
+		if (playbackService == null) {
+			return -1;
+		}
+		return playbackService.getDuration();
+	}
+
 	/**
 	 * Get the album art for the current track.
 	 * 
 	 * @return The album art for the current track.
 	 */
 	public Bitmap getAlbumArt() {
+		return getAlbumArt(0, 0);
+	}
+
+	/**
+	 * Get the album art for the current track scaled to the size it will be
+	 * shown in. The default album art is returned in its original size.
+	 * 
+	 * @param width
+	 *            The width the album art will be shown in.
+	 * @param height
+	 *            The height the album art will be shown in.
+	 * @return The album art for the current track.
+	 */
+	public Bitmap getAlbumArt(int width, int height) {
 		Bitmap albumArt = null;
 		long albumId = PlaybackService.INVALID_ALBUM_ID;
 		long audioId = PlaybackService.INVALID_AUDIO_ID;
-		if (mPlaybackService != null) {
-			albumId = mPlaybackService.getAlbumId();
-			audioId = mPlaybackService.getAudioId();
+		PlaybackService playbackService = mPlaybackService;
+		if (playbackService != null) {
+			albumId = playbackService.getAlbumId();
+			audioId = playbackService.getAudioId();
+		}
+
+		if (albumId == PlaybackService.INVALID_ALBUM_ID && audioId != PlaybackService.INVALID_AUDIO_ID) {
+			albumId = mMediaIndex.getAlbumId(audioId);
 		}
 
 		if (albumId != PlaybackService.INVALID_ALBUM_ID || audioId != PlaybackService.INVALID_AUDIO_ID) {
-			albumArt = MusicUtils.getArtwork(mContext, audioId, albumId);
+			albumArt = MusicUtils.getArtwork(mContext, audioId, albumId, width, height);
 		}
 
 		if (albumArt == null) {
-			albumArt = MusicUtils.getDefaultArtwork(mContext);
+			albumArt = MusicUtils.getDefaultArtwork(mContext, albumId != PlaybackService.INVALID_ALBUM_ID ? albumId : audioId);
+		}
+
+		return albumArt;
+	}
+
+	/**
+	 * Get the key identifying the album art of the current track. Comparing
+	 * keys is a cheap way to find out if the album art has changed, without
+	 * loading the album art.
+	 * 
+	 * @return The album art key for the current track.
+	 */
+	public ArtworkKey getAlbumArtKey() {
+		long albumId = PlaybackService.INVALID_ALBUM_ID;
+		long audioId = PlaybackService.INVALID_AUDIO_ID;
+		PlaybackService playbackService = mPlaybackService;
+		if (playbackService != null) {
+			albumId = playbackService.getAlbumId();
+			audioId = playbackService.getAudioId();
+		}
+
+		if (albumId == PlaybackService.INVALID_ALBUM_ID && audioId != PlaybackService.INVALID_AUDIO_ID) {
+			albumId = mMediaIndex.getAlbumId(audioId);
+		}
+
+		ArtworkKey key = MusicUtils.getArtworkKey(audioId, albumId, mAlbumArtKey);
+		mAlbumArtKey = key;
+		return key;
+	}
+
+	/**
+	 * Get the album art for the current track without blocking. If the album
+	 * art is not already decoded it is loaded in the background and null is
+	 * returned. Listeners are notified through
+	 * {@link PlaybackListener#onAlbumArtUpdate()} when it has been loaded.
+	 * 
+	 * @param width
+	 *            The width the album art will be shown in.
+	 * @param height
+	 *            The height the album art will be shown in.
+	 * @return The album art for the current track, or null if it is being
+	 *         loaded.
+	 */
+	public Bitmap peekAlbumArt(int width, int height) {
+		// Read the playback state before taking the lock, the calls may be
+		// IPC and the main thread waits for the lock when album art has been
+		// loaded.
+		long albumId = PlaybackService.INVALID_ALBUM_ID;
+		long audioId = PlaybackService.INVALID_AUDIO_ID;
+		PlaybackService playbackService = mPlaybackService;
+		if (playbackService != null) {
+			albumId = playbackService.getAlbumId();
+			audioId = playbackService.getAudioId();
+		}
+
+		if (albumId == PlaybackService.INVALID_ALBUM_ID && audioId != PlaybackService.INVALID_AUDIO_ID) {
+			// Use the album art of the album if the track is in the index.
+			albumId = mMediaIndex.getAlbumId(audioId);
+		}
+
+		Bitmap albumArt = null;
+		boolean isTrackChanged;
+		boolean isLoadNeeded = false;
+		synchronized (this) {
+			// Album art loaded before the MediaStore changed is loaded again.
+			int generation = MusicUtils.getMediaGeneration();
+			if (mLoadedArtworkRequest != null && mLoadedArtworkRequest.matches(audioId, albumId, width, height, generation)) {
+				return mLoadedArtwork;
+			}
+			ArtworkRequest request = new ArtworkRequest(audioId, albumId, width, height, generation);
+
+			ArtworkRequest previous = mCurrentArtworkRequest;
+			isTrackChanged = previous == null || previous.mAudioId != audioId || previous.mAlbumId != albumId;
+			mCurrentArtworkRequest = request;
+
+			if (albumId != PlaybackService.INVALID_ALBUM_ID || audioId != PlaybackService.INVALID_AUDIO_ID) {
+				albumArt = MusicUtils.getCachedArtwork(audioId, albumId, width, height);
+			}
+			if (albumArt == null && MusicUtils.isArtworkMissing(audioId, albumId)) {
+				albumArt = MusicUtils.getDefaultArtwork(mContext, albumId != PlaybackService.INVALID_ALBUM_ID ? albumId : audioId);
+			}
+			if (albumArt != null) {
+				mLoadedArtworkRequest = request;
+				mLoadedArtwork = albumArt;
+			} else if (!request.equals(mPendingArtworkRequest)) {
+				mPendingArtworkRequest = request;
+				isLoadNeeded = true;
+			}
+		}
+
+		if (isLoadNeeded) {
+			String path = playbackService != null ? playbackService.getPath() : null;
+			mArtworkLoader.load(audioId, albumId, path, width, height, new ArtworkLoader.Callback() {
+				public void onArtworkLoaded(long audioId, long albumId, Bitmap artwork) {
+					onAlbumArtLoaded(audioId, albumId, artwork);
+				}
+			});
+		}
+
+		// Warm the caches for the tracks likely to be played next. Done after
+		// the current album art has been requested so that it is loaded first.
+		if (isTrackChanged) {
+			mArtworkPrefetcher.onTrackChanged(playbackService, width, height);
 		}
 
 		return albumArt;
 	}
 
+	/**
+	 * Album art has been loaded in the background.
+	 */
+	private void onAlbumArtLoaded(long audioId, long albumId, Bitmap artwork) {
+		synchronized (this) {
+			ArtworkRequest request = mPendingArtworkRequest;
+			if (request == null || request.mAudioId != audioId || request.mAlbumId != albumId) {
+				// Track has been changed while loading.
+				Dbg.d("Dropping album art for " + audioId);
+				return;
+			}
+			mPendingArtworkRequest = null;
+
+			if (artwork == null) {
+				artwork = MusicUtils.getDefaultArtwork(mContext, albumId != PlaybackService.INVALID_ALBUM_ID ? albumId : audioId);
+			}
+			mLoadedArtworkRequest = request;
+			mLoadedArtwork = artwork;
+		}
+
+		for (int i = 0; i < mListeners.size(); i++) {
+			mListeners.get(i).onAlbumArtUpdate();
+		}
+	}
+
+	/**
+	 * Set how media updates are collapsed before the listeners are notified.
+	 * Updates arriving within the window are notified once, at the end of the
+	 * window, and the listeners are not notified more often than the max
+	 * rate.
+	 * 
+	 * @param windowMs
+	 *            The time to wait for more updates.
+	 * @param maxUpdatesPerSecond
+	 *            The max number of times per second to notify the listeners.
+	 */
+	public void setUpdateLimits(int windowMs, int maxUpdatesPerSecond) {
+		mRenderScheduler.setLimits(windowMs, maxUpdatesPerSecond);
+	}
+
+	/**
+	 * Notify the listeners that the playback state has changed.
+	 */
+	private void notifyUpdate() {
+		// Indexed, so that notifying does not allocate an iterator.
+		for (int i = 0; i < mListeners.size(); i++) {
+			mListeners.get(i).onUpdate();
+		}
+	}
+
 	/**
 	 * Register playback listener.
 	 * 
@@ -339,14 +598,65 @@ public class MediaPlayerAdapter {
 		 */
 		@Override
 		public void onReceive(Context context, final Intent intent) {
-			Dbg.d("MediaIntent: " + intent.getAction());
+			if (MusicExtension.DEBUG_UPDATES) {
+				Dbg.d("MediaIntent: " + intent.getAction());
+			}
+
+			// Make sure to refresh info. Bursts of intents, such as those sent
+			// on a track change, are collapsed into one update.
+			mRenderScheduler.schedule();
+		}
+	}
 
-			// Make sure to refresh info.
-			Iterator<PlaybackListener> iterator = mListeners.iterator();
-			while (iterator.hasNext()) {
-				iterator.next().onUpdate();
+	/**
+	 * Identifies an album art request.
+	 */
+	private static final class ArtworkRequest {
+
+		private final long mAudioId;
+
+		private final long mAlbumId;
+
+		private final int mWidth;
+
+		private final int mHeight;
+
+		private final int mGeneration;
+
+		public ArtworkRequest(long audioId, long albumId, int width, int height, int generation) {
+			mAudioId = audioId;
+			mAlbumId = albumId;
+			mWidth = width;
+			mHeight = height;
+			mGeneration = generation;
+		}
+
+		/**
+		 * Check if this request is for the specified album art, without
+		 * creating a request to compare with.
+		 */
+		public boolean matches(long audioId, long albumId, int width, int height, int generation) {
+			return mAudioId == audioId && mAlbumId == albumId && mWidth == width && mHeight == height && mGeneration == generation;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof ArtworkRequest)) {
+				return false;
 			}
+			ArtworkRequest other = (ArtworkRequest) o;
+			return matches(other.mAudioId, other.mAlbumId, other.mWidth, other.mHeight, other.mGeneration);
+		}
 
+		@Override
+		public int hashCode() {
+			int result = 17;
+			result = 31 * result + (int) (mAudioId ^ (mAudioId >>> 32));
+			result = 31 * result + (int) (mAlbumId ^ (mAlbumId >>> 32));
+			result = 31 * result + mWidth;
+			result = 31 * result + mHeight;
+			result = 31 * result + mGeneration;
+			return result;
 		}
 	}
 
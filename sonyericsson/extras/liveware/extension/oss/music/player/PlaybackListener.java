@@ -39,4 +39,10 @@ public interface PlaybackListener {
      * The playback state has been changed.
      */
     public void onUpdate();
+
+    /**
+     * The album art requested with
+     * {@link MediaPlayerAdapter#peekAlbumArt(int, int)} has been loaded.
+     */
+    public void onAlbumArtUpdate();
 }
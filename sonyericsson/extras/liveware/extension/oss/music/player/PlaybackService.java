@@ -96,6 +96,55 @@ public abstract class PlaybackService extends Service {
 	 */
 	public abstract int getAudioId();
 
+	/**
+	 * Get the audio ids of the tracks in the play queue. Playback services
+	 * that do not know the play queue return null.
+	 * 
+	 * @return The audio ids in the play queue or null if not known.
+	 */
+	public int[] getQueue() {
+		return null;
+	}
+
+	/**
+	 * Get the position of the current track in the play queue.
+	 * 
+	 * @return The position in the play queue or -1 if not known.
+	 */
+	public int getQueuePosition() {
+		return -1;
+	}
+
+	/**
+	 * Get the playback position in the current track. Playback services that
+	 * do not know the position return -1.
+	 * 
+	 * @return The position in milliseconds or -1 if not known.
+	 */
+	public long getPosition() {
+		return -1;
+	}
+
+	/**
+	 * Get the duration of the current track. Playback services that do not
+	 * know the duration return -1.
+	 * 
+	 * @return The duration in milliseconds or -1 if not known.
+	 */
+	public long getDuration() {
+		return -1;
+	}
+
+	/**
+	 * Get the path of the current track file. Playback services that do not
+	 * know the path return null.
+	 * 
+	 * @return The path of the current track or null if not known.
+	 */
+	public String getPath() {
+		return null;
+	}
+
 	/**
 	 * Bind to the playback service.
 	 * 
@@ -0,0 +1,124 @@
+package com.sonyericsson.extras.liveware.extension.oss.music.player;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+/**
+ * The render scheduler collapses bursts of updates into one frame. A track
+ * change usually arrives as several broadcasts, for example meta changed
+ * followed by play state changed. Updates arriving within the coalescing
+ * window are rendered as one frame at the end of the window, and frames are
+ * never rendered more often than the max frame rate. If the leading edge is
+ * enabled, the first update of a burst is rendered at once instead and only
+ * the updates that follow are collapsed. The frame reads the playback state
+ * when it is rendered, so the latest state always wins.
+ */
+class RenderScheduler {
+
+	private final Handler mHandler = new Handler();
+
+	private final Runnable mFrame;
+
+	private final Runnable mRender = new Runnable() {
+		public void run() {
+			mIsScheduled = false;
+			mLastFrameTime = SystemClock.uptimeMillis();
+			mFrame.run();
+		}
+	};
+
+	private int mWindowMs;
+
+	private int mMinFrameIntervalMs;
+
+	private boolean mIsLeadingEdge = false;
+
+	private boolean mIsScheduled = false;
+
+	private long mLastFrameTime = 0;
+
+	/**
+	 * Create render scheduler.
+	 *
+	 * @param frame
+	 *            Renders a frame. Run on the thread that created the
+	 *            scheduler.
+	 * @param windowMs
+	 *            The coalescing window.
+	 * @param maxFps
+	 *            The max frame rate.
+	 */
+	public RenderScheduler(final Runnable frame, final int windowMs, final int maxFps) {
+		if (frame == null) {
+			throw new IllegalArgumentException("frame == null");
+		}
+		mFrame = frame;
+		setLimits(windowMs, maxFps);
+	}
+
+	/**
+	 * Change the coalescing window and the max frame rate. Takes effect from
+	 * the next update.
+	 *
+	 * @param windowMs
+	 *            The coalescing window.
+	 * @param maxFps
+	 *            The max frame rate.
+	 */
+	public void setLimits(int windowMs, int maxFps) {
+		if (windowMs < 0) {
+			throw new IllegalArgumentException("windowMs < 0");
+		}
+		if (maxFps <= 0) {
+			throw new IllegalArgumentException("maxFps <= 0");
+		}
+		mWindowMs = windowMs;
+		mMinFrameIntervalMs = 1000 / maxFps;
+	}
+
+	/**
+	 * Set if the first update of a burst is rendered at once. Off by default,
+	 * since a burst then costs two frames instead of one.
+	 *
+	 * @param isLeadingEdge
+	 *            True to render the first update at once.
+	 */
+	public void setLeadingEdge(boolean isLeadingEdge) {
+		mIsLeadingEdge = isLeadingEdge;
+	}
+
+	/**
+	 * Request a frame. The frame is scheduled for the end of the coalescing
+	 * window, or rendered at once on the leading edge if that is enabled and
+	 * no frame has been rendered within the window. Does nothing if a frame
+	 * is already scheduled, since that frame will show the latest state.
+	 */
+	public void schedule() {
+		if (mIsScheduled) {
+			return;
+		}
+
+		long now = SystemClock.uptimeMillis();
+		long delay;
+		if (mIsLeadingEdge) {
+			delay = mLastFrameTime + Math.max(mWindowMs, mMinFrameIntervalMs) - now;
+			if (delay <= 0) {
+				mRender.run();
+				return;
+			}
+		} else {
+			delay = Math.max(mWindowMs, mLastFrameTime + mMinFrameIntervalMs - now);
+		}
+		mIsScheduled = true;
+		mHandler.postDelayed(mRender, delay);
+	}
+
+	/**
+	 * Cancel a scheduled frame.
+	 */
+	public void cancel() {
+		mHandler.removeCallbacks(mRender);
+		mIsScheduled = false;
+	}
+
+}